@@ -16,7 +16,7 @@
 
 package com.dirtyunicorns.themes;
 
-import static com.dirtyunicorns.themes.utils.Utils.setForegroundDrawable;
+import static com.dirtyunicorns.themes.Themes.PREF_THEME_ACCENT_COLOR;
 
 import android.app.AlertDialog;
 import android.app.Dialog;
@@ -25,7 +25,6 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.SharedPreferences;
 import android.os.Bundle;
-import android.os.RemoteException;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.Button;
@@ -34,14 +33,43 @@ import androidx.preference.PreferenceManager;
 
 import com.android.internal.util.du.ThemesUtils;
 
+import com.dirtyunicorns.themes.utils.OverlayFamily;
+import com.dirtyunicorns.themes.utils.OverlayStateCache;
+
 public class AccentPicker extends DialogFragment {
 
     public static final String TAG_ACCENT_PICKER = "accent_picker";
 
+    // Same order as ThemesUtils.ACCENTS
+    private static final int[] ACCENT_BUTTONS = {
+        R.id.spaceAccent,
+        R.id.purpleAccent,
+        R.id.orchidAccent,
+        R.id.oceanAccent,
+        R.id.greenAccent,
+        R.id.cinnamonAccent,
+        R.id.amberAccent,
+        R.id.blueAccent,
+        R.id.blueGreyAccent,
+        R.id.brownAccent,
+        R.id.cyanAccent,
+        R.id.deepOrangeAccent,
+        R.id.deepPurpleAccent,
+        R.id.greyAccent,
+        R.id.indigoAccent,
+        R.id.lightBlueAccent,
+        R.id.lightGreenAccent,
+        R.id.limeAccent,
+        R.id.orangeAccent,
+        R.id.pinkAccent,
+        R.id.redAccent,
+        R.id.tealAccent,
+        R.id.yellowAccent
+    };
+
     private Context mContext;
     private SharedPreferences mSharedPreferences;
     private SharedPreferences.Editor mSharedPreferencesEditor;
-    private String[] mAccentButtons;
     private View mView;
 
     @Override
@@ -50,7 +78,6 @@ public class AccentPicker extends DialogFragment {
         mContext = getActivity();
         mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(mContext);
         mSharedPreferencesEditor = mSharedPreferences.edit();
-        mAccentButtons = getResources().getStringArray(R.array.accent_picker_buttons);
     }
 
     @Override
@@ -73,7 +100,7 @@ public class AccentPicker extends DialogFragment {
 
         builder.setNeutralButton(mContext.getString(R.string.theme_accent_picker_default), new DialogInterface.OnClickListener() {
             public void onClick(DialogInterface dialog, int which) {
-                mSharedPreferencesEditor.remove("theme_accent_color");
+                mSharedPreferencesEditor.remove(PREF_THEME_ACCENT_COLOR);
                 mSharedPreferencesEditor.apply();
                 dialog.dismiss();
             }
@@ -85,12 +112,15 @@ public class AccentPicker extends DialogFragment {
     }
 
     private void initView() {
-        for (int i = 0; i < mAccentButtons.length; i++) {
-            int buttonId = getResources().getIdentifier(mAccentButtons[i], "id", mContext.getPackageName());
-            Button button = (Button) mView.findViewById(buttonId);
-            String accent = ThemesUtils.ACCENTS[i];
-            setAccent(accent, button);
-            setForegroundDrawable(accent, button, getActivity());
+        // One cache lookup instead of a binder call per accent
+        int enabled = OverlayStateCache.getInstance(mContext).getPosition(OverlayFamily.ACCENT);
+        for (int i = 0; i < ACCENT_BUTTONS.length; i++) {
+            Button button = (Button) mView.findViewById(ACCENT_BUTTONS[i]);
+            setAccent(ThemesUtils.ACCENTS[i], button);
+            if (button != null && i == enabled) {
+                button.setForeground(getResources().getDrawable(
+                        R.drawable.accent_picker_checkmark, null));
+            }
         }
     }
 
@@ -99,7 +129,7 @@ public class AccentPicker extends DialogFragment {
             buttonAccent.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
-                    mSharedPreferencesEditor.putString("theme_accent_color", accent);
+                    mSharedPreferencesEditor.putString(PREF_THEME_ACCENT_COLOR, accent);
                     mSharedPreferencesEditor.apply();
                     dismiss();
                 }
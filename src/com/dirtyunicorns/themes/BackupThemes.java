@@ -23,6 +23,7 @@ import android.app.Dialog;
 import android.app.DialogFragment;
 import android.app.UiModeManager;
 import android.app.WallpaperManager;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
@@ -30,9 +31,11 @@ import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.PorterDuff.Mode;
-import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.text.InputFilter;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewStub;
@@ -46,22 +49,28 @@ import androidx.core.graphics.ColorUtils;
 import androidx.preference.PreferenceManager;
 
 import com.dirtyunicorns.themes.db.ThemeDatabase;
+import com.dirtyunicorns.themes.db.ThemeRepository;
+import com.dirtyunicorns.themes.db.WallpaperStore;
+import com.dirtyunicorns.themes.utils.ThemeApplyMetrics;
 import com.dirtyunicorns.themes.utils.ThemeDbUtils;
+import com.dirtyunicorns.themes.utils.WallpaperCodec;
+import com.dirtyunicorns.themes.utils.WallpaperThumbnail;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.List;
+import java.util.concurrent.Callable;
 
 public class BackupThemes extends DialogFragment {
 
     public static final String TAG_BACKUP_THEMES = "backup_themes";
 
-    private boolean mThemeNameExist = false;
+    private static final String TAG = "BackupThemes";
+
     private Drawable mWallpaperDrawable;
+    private WallpaperManager mWallpaperManager;
     private EditText mThemeNameInput;
     private int mRelativeLayout;
     private ProgressBar mBackupProgressBar;
@@ -69,25 +78,23 @@ public class BackupThemes extends DialogFragment {
     private SharedPreferences mSharedPreferences;
     private String mBackupDate;
     private String mThemeName;
+    private String mThemeWpCodec;
     private String mTimeStamp;
-    private String mWpThemeName = null;
     private ThemeDatabase mThemeDatabase;
-    private ThemesListener mThemesListener;
+    private ThemeRepository mThemeRepository;
+    private WallpaperStore mWallpaperStore;
     private UiModeManager mUiModeManager;
 
-    public BackupThemes(ThemesListener themesListener) {
-        mThemesListener = themesListener;
-    }
-
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         mResources = getResources();
-        WallpaperManager wallpaperManager = WallpaperManager.getInstance(getContext());
-        mWallpaperDrawable = wallpaperManager.getDrawable();
+        mWallpaperManager = WallpaperManager.getInstance(getContext());
+        mWallpaperDrawable = mWallpaperManager.getDrawable();
         mTimeStamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
         mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(getActivity());
-        mThemeDatabase = new ThemeDatabase(getActivity());
+        mThemeDatabase = ThemeDatabase.getInstance(getActivity());
+        mThemeRepository = ThemeRepository.getInstance(getActivity());
         mUiModeManager = getActivity().getSystemService(UiModeManager.class);
     }
 
@@ -149,61 +156,104 @@ public class BackupThemes extends DialogFragment {
                     if (mThemeName.isEmpty()) {
                         mThemeName = mBackupDate;
                     }
-                    if (!isThemeNameExist(mThemeName)) {
-                        new AsyncTask<Integer, Integer, String>() {
-
-                            @Override
-                            protected void onPreExecute() {
-                                super.onPreExecute();
-                                mBackupProgressBar.setVisibility(View.VISIBLE);
+                    mThemeRepository.hasTheme(mThemeName,
+                            new ThemeRepository.Callback<Boolean>() {
+                        @Override
+                        public void onResult(Boolean exists) {
+                            if (!isAdded()) {
+                                return;
                             }
-
-                            @Override
-                            protected String doInBackground(Integer... params) {
-                                addThemeBackup();
-                                for (int i = 0; i < params[0]; i++) {
-                                    if (mWpThemeName == null) {
-                                        try {
-                                            Thread.sleep(500);
-                                        } catch (InterruptedException e) {
-                                            e.printStackTrace();
-                                        }
-                                    }
-                                }
-                                return "Backup finished";
-                            }
-
-                            @Override
-                            protected void onPostExecute(String result) {
-                                super.onPostExecute(result);
-                                mBackupProgressBar.setVisibility(View.INVISIBLE);
-                                dialog.dismiss();
+                            if (exists) {
+                                Toast.makeText(getActivity(),
+                                        getString(R.string.theme_name_exist_warning),
+                                        Toast.LENGTH_SHORT).show();
+                            } else {
+                                startBackup(dialog);
                             }
-
-                        }.execute(20);
-                    } else {
-                        Toast.makeText(getActivity(), getString(R.string.theme_name_exist_warning),
-                            Toast.LENGTH_SHORT).show();
-                        return;
-                    }
+                        }
+                    });
                 }
             });
         }
     }
 
-    @Override
-    public void onStop() {
-        super.onStop();
-        if (mThemesListener != null) {
-            mThemesListener.onCloseBackupDialog(null);
-        }
+    private void startBackup(final AlertDialog dialog) {
+        final Button positiveButton = dialog.getButton(Dialog.BUTTON_POSITIVE);
+        positiveButton.setEnabled(false);
+        mBackupProgressBar.setVisibility(View.VISIBLE);
+        final String themeName = mThemeName;
+        final Context context = getActivity().getApplicationContext();
+        mThemeRepository.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                // Resolving the store directories touches disk, do it here
+                mWallpaperStore = WallpaperStore.getInstance(context);
+                return addThemeBackup(themeName);
+            }
+        }, new ThemeRepository.Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean added) {
+                if (!isAdded()) {
+                    return;
+                }
+                mBackupProgressBar.setVisibility(View.INVISIBLE);
+                positiveButton.setEnabled(true);
+                if (!added) {
+                    // Taken since the check in onClick()
+                    Toast.makeText(getActivity(), getString(R.string.theme_name_exist_warning),
+                        Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                dialog.dismiss();
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                if (!isAdded()) {
+                    return;
+                }
+                mBackupProgressBar.setVisibility(View.INVISIBLE);
+                positiveButton.setEnabled(true);
+                Toast.makeText(getActivity(), getString(R.string.theme_backup_failed),
+                    Toast.LENGTH_SHORT).show();
+            }
+        });
     }
 
-    private void addThemeBackup() {
-        mThemeDatabase.addThemeDbUtils(new ThemeDbUtils(mThemeName, isDarkMode(),
+    // Runs on the ThemeRepository thread: capture state, encode wallpaper,
+    // insert row, each stage timed into ThemeApplyMetrics.
+    private boolean addThemeBackup(String themeName) {
+        long start = SystemClock.elapsedRealtime();
+        ThemeDbUtils theme = new ThemeDbUtils(themeName, isDarkMode(),
             getIconsAccentColor(), getThemeNightColor(), getAccentPicker(),
-            getThemeSwitch(), getAdaptiveIconShape(), getFont(), getIconsShape(),
-            getSbIcons(), getThemeWp(), getNavbarStyle()));
+            getThemeSwitch(), getAdaptiveIconShape(), Integer.parseInt(getFont()),
+            getIconsShape(), Integer.parseInt(getSbIcons()), null, getNavbarStyle(), null);
+        long captured = SystemClock.elapsedRealtime();
+        String themeWp = getThemeWp();
+        long encoded = SystemClock.elapsedRealtime();
+        boolean added = false;
+        try {
+            added = mThemeDatabase.addThemeDbUtils(
+                    theme.withThemeWp(themeWp, themeWp != null ? mThemeWpCodec : null));
+        } finally {
+            // Also when the insert threw, or the blob stays pinned and unused
+            if (themeWp != null) {
+                mWallpaperStore.unpin(themeWp);
+                if (!added) {
+                    mWallpaperStore.release(themeWp);
+                }
+            }
+        }
+        long inserted = SystemClock.elapsedRealtime();
+
+        ThemeApplyMetrics metrics = ThemeApplyMetrics.getInstance();
+        metrics.recordLatency(ThemeApplyMetrics.BACKUP_CAPTURE, captured - start);
+        metrics.recordLatency(ThemeApplyMetrics.BACKUP_ENCODE, encoded - captured);
+        metrics.recordLatency(ThemeApplyMetrics.BACKUP_INSERT, inserted - encoded);
+        Log.i(TAG, "Backup took " + (inserted - start) + "ms: capture="
+                + (captured - start) + "ms encode=" + (encoded - captured)
+                + "ms insert=" + (inserted - encoded) + "ms");
+        return added;
     }
 
     private int getThemeBackupPreview() {
@@ -249,24 +299,20 @@ public class BackupThemes extends DialogFragment {
         return navbarBackup;
     }
 
-    private String isDarkMode() {
-        return String.valueOf(mUiModeManager.getNightMode() == UiModeManager.MODE_NIGHT_YES);
+    private boolean isDarkMode() {
+        return mUiModeManager.getNightMode() == UiModeManager.MODE_NIGHT_YES;
     }
 
-    private String getIconsAccentColor() {
-        String iconsAccentColor = "#" + Integer.toHexString(mResources.getColor(
-            R.color.qs_tile_background_active));
-        return iconsAccentColor;
+    private int getIconsAccentColor() {
+        return mResources.getColor(R.color.qs_tile_background_active);
     }
 
-    private String getThemeNightColor() {
-        String themeNightColor = "#" + Integer.toHexString(mResources.getColor(
-            R.color.qs_tile_panel_background_theme_restore));
-        return themeNightColor;
+    private int getThemeNightColor() {
+        return mResources.getColor(R.color.qs_tile_panel_background_theme_restore);
     }
 
     private String getIconsShape() {
-        String iconsShape = getActivity().getString(
+        String iconsShape = mResources.getString(
                     com.android.internal.R.string.config_icon_mask);
         return iconsShape;
     }
@@ -301,44 +347,66 @@ public class BackupThemes extends DialogFragment {
         return navbarStyle;
     }
 
+    // Pinned in mWallpaperStore until addThemeBackup() saved the theme,
+    // sets mThemeWpCodec to the codec actually used
     private File getWallpaperBitmap() throws IOException {
-        File rootDir = new File(getContext().getFilesDir() + "WallpaperBackup");
-        if (!rootDir.exists()) {
-            rootDir.mkdirs();
-        }
-        File themeWpBackup = new File(rootDir + File.separator + mTimeStamp);
-        try {
-            Bitmap themeWpBitmap = ((BitmapDrawable) mWallpaperDrawable).getBitmap();
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            themeWpBitmap.compress(Bitmap.CompressFormat.PNG, 100, baos);
-            themeWpBackup.createNewFile();
-            FileOutputStream fos = new FileOutputStream(themeWpBackup);
-            fos.write(baos.toByteArray());
-            fos.flush();
-            fos.close();
-        } catch (Exception ex) {
-            ex.printStackTrace();
+        WallpaperCodec codec = WallpaperCodec.getConfigured();
+        if (codec.isRaw()) {
+            ParcelFileDescriptor wallpaperFile =
+                    mWallpaperManager.getWallpaperFile(WallpaperManager.FLAG_SYSTEM);
+            if (wallpaperFile != null) {
+                try {
+                    mThemeWpCodec = codec.getId();
+                    return mWallpaperStore.putFile(wallpaperFile.getFileDescriptor());
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not copy the wallpaper file, encoding it instead", e);
+                } finally {
+                    wallpaperFile.close();
+                }
+            }
+            // Live and default wallpapers have no file to copy, decode and
+            // encode those instead
+            codec = WallpaperCodec.PNG;
         }
-        return themeWpBackup;
+        final WallpaperCodec encoder = codec;
+        final Bitmap themeWpBitmap = ((BitmapDrawable) mWallpaperDrawable).getBitmap();
+        mThemeWpCodec = encoder.getId();
+        return mWallpaperStore.put(new WallpaperStore.Encoder() {
+            @Override
+            public void encode(OutputStream out) throws IOException {
+                encoder.encode(themeWpBitmap, out);
+            }
+        });
     }
 
     private String getThemeWp() {
         try {
-            mWpThemeName = getWallpaperBitmap().toString();
+            String themeWp = getWallpaperBitmap().toString();
+            writeThumbnail(themeWp);
+            return themeWp;
         } catch(Exception ex) {
             ex.printStackTrace();
         }
-        return mWpThemeName;
+        return null;
     }
 
-    private boolean isThemeNameExist(String themeName) {
-        List<ThemeDbUtils> themeDatabaseList = mThemeDatabase.getAllThemeDbUtils();
-        for (ThemeDbUtils name : themeDatabaseList) {
-            String str = name.getThemeName();
-            if (str.equals(themeName)) {
-                mThemeNameExist = true;
+    // Scaled from the bitmap the preview decoded anyway; without it the
+    // restore carousel creates the thumbnail itself
+    private void writeThumbnail(String themeWp) {
+        if (!(mWallpaperDrawable instanceof BitmapDrawable)) {
+            return;
+        }
+        Bitmap wallpaper = ((BitmapDrawable) mWallpaperDrawable).getBitmap();
+        Bitmap thumbnail = WallpaperThumbnail.scale(wallpaper,
+                WallpaperThumbnail.getWidth(mResources), WallpaperThumbnail.getHeight(mResources));
+        try {
+            WallpaperThumbnail.write(mWallpaperStore, themeWp, thumbnail);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (thumbnail != wallpaper) {
+                thumbnail.recycle();
             }
         }
-        return mThemeNameExist;
     }
 }
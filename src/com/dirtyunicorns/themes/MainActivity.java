@@ -16,16 +16,42 @@
 
 package com.dirtyunicorns.themes;
 
+import android.os.Build;
 import android.os.Bundle;
+import android.os.StrictMode;
 import android.preference.PreferenceActivity;
 
+import com.dirtyunicorns.themes.utils.OverlayStateCache;
+import com.dirtyunicorns.themes.utils.ThemeApplyMetrics;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 public class MainActivity extends PreferenceActivity {
 
     @Override
     public void onCreate(final Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        if (Build.IS_DEBUGGABLE) {
+            // Theme library access belongs on the ThemeRepository thread
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectDiskReads()
+                    .detectDiskWrites()
+                    .penaltyLog()
+                    .build());
+        }
+
         getFragmentManager().beginTransaction().replace(android.R.id.content,
                 new Themes()).commit();
     }
+
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        OverlayStateCache cache = OverlayStateCache.getInstance(this);
+        writer.println(prefix + "Overlay state cache: hits=" + cache.getHitCount()
+                + " misses=" + cache.getMissCount());
+        ThemeApplyMetrics.getInstance().dump(prefix, writer);
+    }
 }
@@ -16,6 +16,8 @@
 
 package com.dirtyunicorns.themes;
 
+import static com.dirtyunicorns.themes.Themes.PREF_THEME_NAVBAR_STYLE;
+
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.DialogFragment;
@@ -35,10 +37,17 @@ public class NavbarPicker extends DialogFragment {
 
     public static final String TAG_NAVBAR_PICKER = "navbar_picker";
 
+    // Same order as ThemesUtils.NAVBAR_STYLES
+    private static final int[] NAVBAR_LAYOUTS = {
+        R.id.asus_layout,
+        R.id.oneplus_layout,
+        R.id.oneui_layout,
+        R.id.tecno_layout
+    };
+
     private Context mContext;
     private SharedPreferences mSharedPreferences;
     private SharedPreferences.Editor mSharedPreferencesEditor;
-    private String[] mNavbarLayouts;
     private View mView;
 
     @Override
@@ -47,7 +56,6 @@ public class NavbarPicker extends DialogFragment {
         mContext = getActivity();
         mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(mContext);
         mSharedPreferencesEditor = mSharedPreferences.edit();
-        mNavbarLayouts = getResources().getStringArray(R.array.navbar_picker_layouts);
     }
 
     @Override
@@ -69,7 +77,7 @@ public class NavbarPicker extends DialogFragment {
 
         builder.setNeutralButton(mContext.getString(R.string.theme_accent_picker_default), new DialogInterface.OnClickListener() {
             public void onClick(DialogInterface dialog, int which) {
-                mSharedPreferencesEditor.remove("theme_navbar_style");
+                mSharedPreferencesEditor.remove(PREF_THEME_NAVBAR_STYLE);
                 mSharedPreferencesEditor.apply();
                 dialog.dismiss();
             }
@@ -81,9 +89,8 @@ public class NavbarPicker extends DialogFragment {
     }
 
     private void initView() {
-        for (int i = 0; i < mNavbarLayouts.length; i++) {
-            int layoutId = getResources().getIdentifier(mNavbarLayouts[i], "id", mContext.getPackageName());
-            RelativeLayout layout = (RelativeLayout) mView.findViewById(layoutId);
+        for (int i = 0; i < NAVBAR_LAYOUTS.length; i++) {
+            RelativeLayout layout = (RelativeLayout) mView.findViewById(NAVBAR_LAYOUTS[i]);
             String overlay = ThemesUtils.NAVBAR_STYLES[i];
             setNavbarStyle(overlay, layout);
         }
@@ -94,8 +101,8 @@ public class NavbarPicker extends DialogFragment {
             layout.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
-                    mSharedPreferencesEditor.remove("theme_navbar_style");
-                    mSharedPreferencesEditor.putString("theme_navbar_style", overlay);
+                    mSharedPreferencesEditor.remove(PREF_THEME_NAVBAR_STYLE);
+                    mSharedPreferencesEditor.putString(PREF_THEME_NAVBAR_STYLE, overlay);
                     mSharedPreferencesEditor.apply();
                     dismiss();
                 }
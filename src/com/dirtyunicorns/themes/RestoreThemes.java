@@ -21,11 +21,10 @@ import static com.dirtyunicorns.themes.utils.Utils.threeButtonNavbarEnabled;
 import android.app.ActionBar;
 import android.app.Activity;
 import android.app.AlertDialog;
-import android.app.WallpaperManager;
 import android.content.DialogInterface;
+import android.content.Intent;
 import android.content.SharedPreferences;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.net.Uri;
 import android.os.Bundle;
 import android.text.InputFilter;
 import android.view.LayoutInflater;
@@ -39,6 +38,7 @@ import android.widget.EditText;
 import android.widget.CompoundButton;
 import android.widget.RelativeLayout;
 import android.widget.Switch;
+import android.widget.Toast;
 
 import androidx.preference.PreferenceManager;
 import androidx.recyclerview.widget.DefaultItemAnimator;
@@ -48,30 +48,41 @@ import androidx.recyclerview.widget.RecyclerView;
 import androidx.recyclerview.widget.SnapHelper;
 
 import com.dirtyunicorns.themes.db.ThemeDatabase;
+import com.dirtyunicorns.themes.db.ThemeObserver;
+import com.dirtyunicorns.themes.db.ThemeRepository;
 import com.dirtyunicorns.themes.utils.ThemeDbUtils;
+import com.dirtyunicorns.themes.utils.ThemeProfile;
+import com.dirtyunicorns.themes.utils.ThemeRestoreJob;
 import com.dirtyunicorns.themes.utils.ThemesListItem;
 
-import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Future;
 
 public class RestoreThemes extends Activity implements CompoundButton.OnCheckedChangeListener {
 
     public static final String TAG_RESTORE_THEMES = "restore_themes";
 
+    private static final int PAGE_SIZE = 10;
+    private static final int REQUEST_IMPORT_THEMES = 1;
+    private static final int REQUEST_EXPORT_THEMES = 2;
+    private static final String THEME_LIBRARY_TYPE = "application/json";
+    private static final String THEME_LIBRARY_FILE_NAME = "themes.json";
+
     private ArrayList<String> mSwitchList;
     private int mNumSwitches = 7;
     private int mSwitchId;
     private LinearLayoutManager mLayoutManager;
     private List<ThemesListItem> mThemesList;
+    private boolean mHasMoreThemes;
     private RecyclerView mThemesRecyclerView;
     private RelativeLayout mThemePopup;
     private SharedPreferences mSharedPreferences;
     private SharedPreferences.Editor mSharedPrefEditor;
     private ThemesAdapter mThemesAdapter;
-    private ThemeDatabase mThemeDatabase;
-    private WallpaperManager mWallpaperManager;
+    private ThemeRepository mThemeRepository;
+    private Future<List<ThemeDbUtils>> mPageRequest;
+    private ThemeRestoreJob mRestoreJob;
 
     private Button mDeleteTheme;
     private Button mApplyTheme;
@@ -124,11 +135,10 @@ public class RestoreThemes extends Activity implements CompoundButton.OnCheckedC
         }
         mThemesList = new ArrayList<>();
         mThemesAdapter = new ThemesAdapter(this, mThemesList);
-        mThemeDatabase = new ThemeDatabase(this);
+        mThemeRepository = ThemeRepository.getInstance(this);
         mLayoutManager = new LinearLayoutManager(this, LinearLayoutManager.HORIZONTAL, false);
         mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
         mSharedPrefEditor = mSharedPreferences.edit();
-        mWallpaperManager = WallpaperManager.getInstance(this);
 
         mThemesRecyclerView = (RecyclerView) findViewById(R.id.themeRecyclerView);
         mThemesRecyclerView.setHasFixedSize(true);
@@ -136,6 +146,17 @@ public class RestoreThemes extends Activity implements CompoundButton.OnCheckedC
         mThemesRecyclerView.setItemAnimator(new DefaultItemAnimator());
         mThemesRecyclerView.setNestedScrollingEnabled(true);
         mThemesRecyclerView.setAdapter(mThemesAdapter);
+        mThemesRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                // Fetch the next page while the second last theme is on screen
+                if (mHasMoreThemes && mLayoutManager.findLastVisibleItemPosition()
+                        >= mThemesList.size() - 2) {
+                    mHasMoreThemes = false;
+                    recyclerView.post(mLoadMoreThemes);
+                }
+            }
+        });
 
         mThemesRecyclerView.getViewTreeObserver().addOnScrollChangedListener(new ViewTreeObserver.OnScrollChangedListener() {
             @Override
@@ -161,13 +182,8 @@ public class RestoreThemes extends Activity implements CompoundButton.OnCheckedC
         mDeleteTheme.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                mThemeDatabase.deleteThemeDbUtils(mThemesList.get(getCurrentItem()).getThemeName());
-                getWallpaperBackupFile().delete();
-                if (hasPreview() || hasNext()) {
-                    setThemesData();
-                } else {
-                    finish();
-                }
+                // The carousel drops the card once mThemeObserver hears of it
+                mThemeRepository.deleteTheme(mThemesList.get(getCurrentItem()).getID(), null);
             }
         });
 
@@ -184,6 +200,7 @@ public class RestoreThemes extends Activity implements CompoundButton.OnCheckedC
 
         setSwitchesChecked();
         setThemesData();
+        mThemeRepository.registerObserver(mThemeObserver);
     }
 
     @Override
@@ -241,6 +258,19 @@ public class RestoreThemes extends Activity implements CompoundButton.OnCheckedC
         Themes.setSharedPrefListener(false);
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (mRestoreJob != null) {
+            // Let a running restore finish without this activity
+            mRestoreJob.setListener(null);
+        }
+        if (mPageRequest != null) {
+            mPageRequest.cancel(false);
+        }
+        mThemeRepository.unregisterObserver(mThemeObserver);
+    }
+
     private void setSwitchesChecked() {
         if (isPersistentSwitches()) {
             mThemeSwitch.setChecked(mSharedPreferences.getBoolean(
@@ -317,119 +347,183 @@ public class RestoreThemes extends Activity implements CompoundButton.OnCheckedC
     }
 
     private void applyThemeBackup() {
-        applyThemeSwitch();
-        applyThemeFont();
-        applyThemeIconShape();
-        applyThemeSbIcons();
-        applyThemeAccent();
-        applyThemeNavbarStyle();
-        applyThemeWp();
-    }
-
-    private void applyThemeSwitch() {
+        int mask = 0;
         if (mThemeSwitch.isChecked()) {
-            String newValue = mThemesList.get(getCurrentItem()).getThemeSwitch();
-            mSharedPrefEditor.putString("theme_switch", newValue);
-            mSharedPrefEditor.apply();
+            mask |= ThemeProfile.THEME;
         }
-    }
-
-    private void applyThemeFont() {
         if (mFontSwitch.isChecked()) {
-            String newValue = mThemesList.get(getCurrentItem()).getThemeFont();
-            mSharedPrefEditor.putString("font_picker", newValue);
-            mSharedPrefEditor.apply();
+            mask |= ThemeProfile.FONT;
+        }
+        if (mIconShapeSwitch.isChecked()) {
+            mask |= ThemeProfile.ICON_SHAPE;
+        }
+        if (mSbIconSwitch.isChecked()) {
+            mask |= ThemeProfile.SB_ICONS;
+        }
+        if (mAccentSwitch.isChecked()) {
+            mask |= ThemeProfile.ACCENT;
+        }
+        if (threeButtonNavbarEnabled(this) && mNavbarSwitch.isChecked()) {
+            mask |= ThemeProfile.NAVBAR;
+        }
+        // Imported themes and failed wallpaper captures have no wallpaper,
+        // restore the rest and keep the current one
+        String wallpaperPath = mWpSwitch.isChecked()
+                ? mThemesList.get(getCurrentItem()).getThemeWp() : null;
+        if (mask != 0 || wallpaperPath != null) {
+            final int restoreMask = mask;
+            final String restoreWallpaper = wallpaperPath;
+            mThemeRepository.getTheme(mThemesList.get(getCurrentItem()).getID(),
+                    new ThemeRepository.Callback<ThemeDbUtils>() {
+                @Override
+                public void onResult(ThemeDbUtils theme) {
+                    if (theme != null && !isDestroyed()) {
+                        mRestoreJob = ThemeRestoreJob.start(RestoreThemes.this, theme,
+                                restoreMask, restoreWallpaper, mRestoreListener);
+                    }
+                }
+            });
         }
     }
 
-    private void applyThemeIconShape() {
-        if (mIconShapeSwitch.isChecked()) {
-            String newValue = mThemesList.get(getCurrentItem()).getAdaptiveIconShape();
-            mSharedPrefEditor.putString("adapative_icon_shape", newValue);
-            mSharedPrefEditor.apply();
+    private final ThemeRestoreJob.Listener mRestoreListener = new ThemeRestoreJob.Listener() {
+        @Override
+        public void onProgress(int stage) {
+            mApplyTheme.setEnabled(false);
+            mDeleteTheme.setEnabled(false);
+        }
+
+        @Override
+        public void onComplete(boolean success) {
+            mRestoreJob = null;
+            mApplyTheme.setEnabled(true);
+            mDeleteTheme.setEnabled(true);
+            if (!success) {
+                Toast.makeText(RestoreThemes.this, R.string.theme_restore_failed,
+                        Toast.LENGTH_SHORT).show();
+            }
         }
+    };
+
+    private void setThemesData() {
+        if (mPageRequest != null) {
+            mPageRequest.cancel(false);
+        }
+        mThemesList.clear();
+        mThemesAdapter.notifyDataSetChanged();
+        loadMoreThemes();
     }
 
-    private void applyThemeSbIcons() {
-        if (mSbIconSwitch.isChecked()) {
-            String newValue = mThemesList.get(getCurrentItem()).getThemeSbIcons();
-            mSharedPrefEditor.putString("statusbar_icons", newValue);
-            mSharedPrefEditor.apply();
+    private final Runnable mLoadMoreThemes = new Runnable() {
+        @Override
+        public void run() {
+            loadMoreThemes();
         }
+    };
+
+    private void loadMoreThemes() {
+        int size = mThemesList.size();
+        int beforeId = size > 0 ? mThemesList.get(size - 1).getID() : Integer.MAX_VALUE;
+        mHasMoreThemes = false;
+        mPageRequest = mThemeRepository.getThemePage(beforeId, PAGE_SIZE,
+                new ThemeRepository.Callback<List<ThemeDbUtils>>() {
+            @Override
+            public void onResult(List<ThemeDbUtils> themesDatabaseList) {
+                mPageRequest = null;
+                int start = mThemesList.size();
+                for (ThemeDbUtils themes : themesDatabaseList) {
+                    mThemesList.add(new ThemesListItem(themes));
+                }
+                mHasMoreThemes = themesDatabaseList.size() == PAGE_SIZE;
+                mThemesAdapter.notifyItemRangeInserted(start, themesDatabaseList.size());
+                // The last card may have been deleted while this page loaded
+                finishIfEmpty();
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                // Stop paging, a later change reloads the carousel
+                mPageRequest = null;
+                finishIfEmpty();
+            }
+        });
     }
 
-    private void applyThemeAccent() {
-        if (mAccentSwitch.isChecked()) {
-            String newValue = mThemesList.get(getCurrentItem()).getAccentPicker();
-            mSharedPrefEditor.putString("theme_accent_color", newValue);
-            mSharedPrefEditor.apply();
+    private void finishIfEmpty() {
+        if (mThemesList.isEmpty() && !mHasMoreThemes && mPageRequest == null) {
+            finish();
         }
     }
 
-    private void applyThemeNavbarStyle() {
-        if (threeButtonNavbarEnabled(this)) {
-            if (mNavbarSwitch.isChecked()) {
-                String newValue = mThemesList.get(getCurrentItem()).getThemeNavbarStyle();
-                mSharedPrefEditor.putString("theme_navbar_style", newValue);
-                mSharedPrefEditor.apply();
+    private int indexOfTheme(int id) {
+        for (int i = 0; i < mThemesList.size(); i++) {
+            if (mThemesList.get(i).getID() == id) {
+                return i;
             }
         }
+        return -1;
     }
 
-    private void applyThemeWp() {
-        if (mWpSwitch.isChecked()) {
-            new Thread() {
+    // Apply single row changes in place instead of reloading the carousel
+    private final ThemeObserver mThemeObserver = new ThemeObserver() {
+        @Override
+        public void onChanged() {
+            // An import, too many rows to apply one by one
+            setThemesData();
+        }
+
+        @Override
+        public void onThemeInserted(int id) {
+            // Ids only grow, so a new theme is always the first card
+            mThemeRepository.getTheme(id, new ThemeRepository.Callback<ThemeDbUtils>() {
                 @Override
-                public void run() {
-                    try {
-                        Bitmap themeWpBitmap = BitmapFactory.decodeFile(
-                                getWallpaperBackupFile().getPath());
-                        mWallpaperManager.setBitmap(themeWpBitmap, null,
-                                false, WallpaperManager.FLAG_SYSTEM);
-                    } catch (Exception ex) {
-                        ex.printStackTrace();
+                public void onResult(ThemeDbUtils theme) {
+                    if (theme != null && indexOfTheme(theme.getID()) == -1) {
+                        mThemesList.add(0, new ThemesListItem(theme));
+                        mThemesAdapter.notifyItemInserted(0);
                     }
                 }
-            }.start();
+            });
         }
-    }
 
-    private File getWallpaperBackupFile() {
-        String themeWpBackup = mThemesList.get(getCurrentItem()).getThemeWp();
-        File wpFile = new File(themeWpBackup);
-        return wpFile;
-    }
+        @Override
+        public void onThemeUpdated(int id) {
+            if (indexOfTheme(id) == -1) {
+                return;
+            }
+            mThemeRepository.getTheme(id, new ThemeRepository.Callback<ThemeDbUtils>() {
+                @Override
+                public void onResult(ThemeDbUtils theme) {
+                    int index = theme != null ? indexOfTheme(theme.getID()) : -1;
+                    if (index != -1) {
+                        mThemesList.set(index, new ThemesListItem(theme));
+                        mThemesAdapter.notifyItemChanged(index);
+                    }
+                }
+            });
+        }
 
-    private void setThemesData() {
-        mThemesList.clear();
-        List<ThemeDbUtils> themesDatabaseList = mThemeDatabase.getAllThemeDbUtils();
-        for (ThemeDbUtils themes : themesDatabaseList) {
-            String themeName = themes.getThemeName();
-            String themeDayOrNight = themes.getThemeDayOrNight();
-            String themeAccent = themes.getThemeAccent();
-            String themeNightColor = themes.getThemeNightColor();
-            String accentPicker = themes.getAccentPicker();
-            String themeSwitch = themes.getThemeSwitch();
-            String adaptativeIconShape = themes.getAdaptiveIconShape();
-            String themeFont = themes.getThemeFont();
-            String themeIconShape = themes.getThemeIconShape();
-            String themeSbIcons = themes.getThemeSbIcons();
-            String themeWp = themes.getThemeWp();
-            String themeNavbarStyle = themes.getThemeNavbarStyle();
-            mThemesList.add(new ThemesListItem(themeName, themeDayOrNight,
-                    themeAccent, themeNightColor, accentPicker, themeSwitch,
-                    adaptativeIconShape, themeFont, themeIconShape, themeSbIcons,
-                    themeWp, themeNavbarStyle));
+        @Override
+        public void onThemeDeleted(int id) {
+            int index = indexOfTheme(id);
+            if (index == -1) {
+                return;
+            }
+            mThemesList.remove(index);
+            mThemesAdapter.notifyItemRemoved(index);
+            if (mThemesList.isEmpty() && mHasMoreThemes) {
+                loadMoreThemes();
+            } else {
+                finishIfEmpty();
+            }
         }
-        mThemesAdapter.notifyDataSetChanged();
-        assert mThemesList != null;
-        Collections.reverse(mThemesList);
-    }
+    };
 
     private void renameTheme() {
         LayoutInflater inflater = getLayoutInflater();
         final View view = inflater.inflate(R.layout.rename_theme_dialog, null, false);
         final EditText renameThemeInput = (EditText) view.findViewById(R.id.renameTheme);
+        final int themeId = mThemesList.get(getCurrentItem()).getID();
         String oldThemeName = mThemesList.get(getCurrentItem()).getThemeName();
         int maxLength = 20;
         AlertDialog.Builder builder = new AlertDialog.Builder(this, R.style.AccentDialogTheme)
@@ -461,21 +555,21 @@ public class RestoreThemes extends Activity implements CompoundButton.OnCheckedC
                 if (newThemeName.isEmpty()) {
                     newThemeName = oldThemeName;
                 }
-                mThemeDatabase.updateThemeDbUtils(new ThemeDbUtils(newThemeName,
-                        mThemesList.get(getCurrentItem()).getThemeDayOrNight(),
-                        mThemesList.get(getCurrentItem()).getThemeAccent(),
-                        mThemesList.get(getCurrentItem()).getThemeNightColor(),
-                        mThemesList.get(getCurrentItem()).getAccentPicker(),
-                        mThemesList.get(getCurrentItem()).getThemeSwitch(),
-                        mThemesList.get(getCurrentItem()).getAdaptiveIconShape(),
-                        mThemesList.get(getCurrentItem()).getThemeFont(),
-                        mThemesList.get(getCurrentItem()).getThemeIconShape(),
-                        mThemesList.get(getCurrentItem()).getThemeSbIcons(),
-                        mThemesList.get(getCurrentItem()).getThemeWp(),
-                        mThemesList.get(getCurrentItem()).getThemeNavbarStyle()),
-                        oldThemeName);
-                setThemesData();
-                dialog.dismiss();
+                mThemeRepository.renameTheme(themeId, newThemeName,
+                        new ThemeRepository.Callback<Boolean>() {
+                    @Override
+                    public void onResult(Boolean renamed) {
+                        if (isDestroyed()) {
+                            return;
+                        }
+                        if (!renamed) {
+                            Toast.makeText(RestoreThemes.this, R.string.theme_name_exist_warning,
+                                    Toast.LENGTH_SHORT).show();
+                            return;
+                        }
+                        dialog.dismiss();
+                    }
+                });
             }
         });
     }
@@ -498,6 +592,18 @@ public class RestoreThemes extends Activity implements CompoundButton.OnCheckedC
             case R.id.rename_theme:
                 renameTheme();
                 return true;
+            case R.id.import_themes:
+                startActivityForResult(new Intent(Intent.ACTION_OPEN_DOCUMENT)
+                        .addCategory(Intent.CATEGORY_OPENABLE)
+                        .setType(THEME_LIBRARY_TYPE), REQUEST_IMPORT_THEMES);
+                return true;
+            case R.id.export_themes:
+                startActivityForResult(new Intent(Intent.ACTION_CREATE_DOCUMENT)
+                        .addCategory(Intent.CATEGORY_OPENABLE)
+                        .setType(THEME_LIBRARY_TYPE)
+                        .putExtra(Intent.EXTRA_TITLE, THEME_LIBRARY_FILE_NAME),
+                        REQUEST_EXPORT_THEMES);
+                return true;
             case R.id.persistent_switch:
                 item.setChecked(!item.isChecked());
                 mSharedPrefEditor.putBoolean("persistentSwitches", item.isChecked());
@@ -508,4 +614,70 @@ public class RestoreThemes extends Activity implements CompoundButton.OnCheckedC
                 return super.onOptionsItemSelected(item);
         }
     }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (resultCode != Activity.RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+        Uri uri = data.getData();
+        switch (requestCode) {
+            case REQUEST_IMPORT_THEMES:
+                mThemeRepository.importThemes(getContentResolver(), uri, mLibraryProgress,
+                        new LibraryCallback(R.string.theme_library_imported,
+                        R.string.theme_library_import_failed));
+                break;
+            case REQUEST_EXPORT_THEMES:
+                mThemeRepository.exportThemes(getContentResolver(), uri, mLibraryProgress,
+                        new LibraryCallback(R.string.theme_library_exported,
+                        R.string.theme_library_export_failed));
+                break;
+        }
+    }
+
+    private final ThemeDatabase.ProgressListener mLibraryProgress =
+            new ThemeDatabase.ProgressListener() {
+        @Override
+        public void onProgress(int rows, float rowsPerSecond) {
+            ActionBar actionBar = getActionBar();
+            if (actionBar != null && !isDestroyed()) {
+                actionBar.setSubtitle(getString(R.string.theme_library_progress,
+                        rows, Math.round(rowsPerSecond)));
+            }
+        }
+    };
+
+    private class LibraryCallback extends ThemeRepository.Callback<Integer> {
+
+        private final int mDoneMessage;
+        private final int mFailedMessage;
+
+        LibraryCallback(int doneMessage, int failedMessage) {
+            mDoneMessage = doneMessage;
+            mFailedMessage = failedMessage;
+        }
+
+        @Override
+        public void onResult(Integer rows) {
+            if (isDestroyed()) {
+                return;
+            }
+            ActionBar actionBar = getActionBar();
+            if (actionBar != null) {
+                actionBar.setSubtitle(null);
+            }
+            if (rows < 0) {
+                Toast.makeText(RestoreThemes.this, mFailedMessage, Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(RestoreThemes.this, getString(mDoneMessage, rows),
+                        Toast.LENGTH_SHORT).show();
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            onResult(-1);
+        }
+    }
 }
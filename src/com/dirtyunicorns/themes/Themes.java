@@ -16,18 +16,14 @@
 
 package com.dirtyunicorns.themes;
 
-import static android.os.UserHandle.USER_SYSTEM;
 import static com.dirtyunicorns.themes.utils.Utils.getScheduledStartThemeSummary;
 import static com.dirtyunicorns.themes.utils.Utils.getScheduledStartThemeTime;
 import static com.dirtyunicorns.themes.utils.Utils.getThemeSchedule;
-import static com.dirtyunicorns.themes.utils.Utils.handleBackgrounds;
-import static com.dirtyunicorns.themes.utils.Utils.handleOverlays;
 import static com.dirtyunicorns.themes.utils.Utils.isLiveWallpaper;
 import static com.dirtyunicorns.themes.utils.Utils.threeButtonNavbarEnabled;
 
 import android.app.ActionBar;
 import android.app.AlertDialog;
-import android.app.DialogFragment;
 import android.app.Fragment;
 import android.app.FragmentManager;
 import android.app.UiModeManager;
@@ -41,7 +37,6 @@ import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.graphics.drawable.Drawable;
 import android.os.AsyncTask;
 import android.os.Bundle;
-import android.os.RemoteException;
 import android.os.ServiceManager;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -54,16 +49,16 @@ import androidx.preference.PreferenceFragment;
 import androidx.preference.PreferenceManager;
 import androidx.preference.PreferenceScreen;
 
-import com.android.internal.util.du.ThemesUtils;
-import com.android.internal.util.du.Utils;
-import com.dirtyunicorns.themes.db.ThemeDatabase;
+import com.dirtyunicorns.themes.db.ThemeObserver;
+import com.dirtyunicorns.themes.db.ThemeRepository;
+import com.dirtyunicorns.themes.utils.OverlayFamily;
+import com.dirtyunicorns.themes.utils.OverlayStateCache;
+import com.dirtyunicorns.themes.utils.OverlayTransaction;
+import com.dirtyunicorns.themes.utils.ThemeApplyExecutor;
 
 import java.util.Calendar;
-import java.util.Objects;
 
-import static com.dirtyunicorns.themes.utils.Utils.isLiveWallpaper;
-
-public class Themes extends PreferenceFragment implements ThemesListener {
+public class Themes extends PreferenceFragment {
 
     private static final String TAG = "Themes";
 
@@ -71,10 +66,6 @@ public class Themes extends PreferenceFragment implements ThemesListener {
     private static final String PREF_RESTORE_THEMES = "restore_themes";
     private static final String PREF_WP_PREVIEW = "wp_preview";
     private static final String PREF_THEME_SCHEDULE = "theme_schedule";
-    private static final String PREF_THEME_ACCENT_PICKER = "theme_accent_picker";
-    private static final String PREF_THEME_NAVBAR_PICKER = "theme_navbar_picker";
-    private static final String PREF_QS_HEADER_STYLE = "qs_header_style";
-    private static final String PREF_SWITCH_STYLE = "switch_style";
 
     public static final String PREF_THEME_NAVBAR_STYLE = "theme_navbar_style";
     public static final String PREF_THEME_ACCENT_COLOR = "theme_accent_color";
@@ -82,24 +73,21 @@ public class Themes extends PreferenceFragment implements ThemesListener {
     public static final String PREF_FONT_PICKER = "font_picker";
     public static final String PREF_STATUSBAR_ICONS = "statusbar_icons";
     public static final String PREF_THEME_SWITCH = "theme_switch";
+    public static final String PREF_THEME_ACCENT_PICKER = "theme_accent_picker";
+    public static final String PREF_THEME_NAVBAR_PICKER = "theme_navbar_picker";
+    public static final String PREF_QS_HEADER_STYLE = "qs_header_style";
+    public static final String PREF_SWITCH_STYLE = "switch_style";
 
-    private int mBackupLimit = 10;
     private static boolean mUseSharedPrefListener;
-    private String[] mAccentName;
-    private String[] mNavbarName;
 
     private Context mContext;
     private IOverlayManager mOverlayManager;
+    private OverlayStateCache mOverlayStateCache;
     private SharedPreferences mSharedPreferences;
-    private ThemeDatabase mThemeDatabase;
+    private ThemeRepository mThemeRepository;
     private UiModeManager mUiModeManager;
 
-    private ListPreference mAdaptiveIconShape;
-    private ListPreference mFontPicker;
-    private ListPreference mStatusbarIcons;
     private ListPreference mThemeSwitch;
-    private ListPreference mQsHeaderStyle;
-    private ListPreference mSwitchStyle;
     private Preference mAccentPicker;
     private Preference mBackupThemes;
     private Preference mNavbarPicker;
@@ -123,7 +111,8 @@ public class Themes extends PreferenceFragment implements ThemesListener {
 
         setHasOptionsMenu(true);
 
-        mThemeDatabase = new ThemeDatabase(mContext);
+        mThemeRepository = ThemeRepository.getInstance(mContext);
+        mThemeRepository.registerObserver(mThemeDatabaseObserver);
 
         // Shared preferences
         mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(mContext);
@@ -133,12 +122,7 @@ public class Themes extends PreferenceFragment implements ThemesListener {
         mUiModeManager = getContext().getSystemService(UiModeManager.class);
         mOverlayManager = IOverlayManager.Stub.asInterface(
                 ServiceManager.getService(Context.OVERLAY_SERVICE));
-
-        // Accent summary
-        mAccentName = getResources().getStringArray(R.array.accent_name);
-
-        // Navbar summary
-        mNavbarName = getResources().getStringArray(R.array.navbar_name);
+        mOverlayStateCache = OverlayStateCache.getInstance(mContext);
 
         // Wallpaper preview
         mWpPreview = (Preference) findPreference(PREF_WP_PREVIEW);
@@ -213,7 +197,7 @@ public class Themes extends PreferenceFragment implements ThemesListener {
                                             if (frag != null) {
                                                 manager.beginTransaction().remove(frag).commit();
                                             }
-                                            BackupThemes backupThemesFragment = new BackupThemes(Themes.this);
+                                            BackupThemes backupThemesFragment = new BackupThemes();
                                             backupThemesFragment.show(manager, BackupThemes.TAG_BACKUP_THEMES);
                                         }
                                     })
@@ -231,7 +215,7 @@ public class Themes extends PreferenceFragment implements ThemesListener {
                     if (frag != null) {
                         manager.beginTransaction().remove(frag).commit();
                     }
-                    BackupThemes backupThemesFragment = new BackupThemes(Themes.this);
+                    BackupThemes backupThemesFragment = new BackupThemes();
                     backupThemesFragment.show(manager, BackupThemes.TAG_BACKUP_THEMES);
                 }
                 return true;
@@ -253,27 +237,38 @@ public class Themes extends PreferenceFragment implements ThemesListener {
             }
         });
 
-        // Accent
-        String accentName = getOverlayName(ThemesUtils.ACCENTS);
-        if (accentName != null) {
-            mSharedPreferences.edit().putString("theme_accent_color", accentName).apply();
-        }
-
-        // Navbar
-        String navbarName = getOverlayName(ThemesUtils.NAVBAR_STYLES);
-        if (navbarName != null) {
-            mSharedPreferences.edit().putString("theme_navbar_style", navbarName).apply();
-        }
-
         // Themes
         mThemeSwitch = (ListPreference) findPreference(PREF_THEME_SWITCH);
-        if (Utils.isThemeEnabled("com.android.theme.bakedgreen.system")) {
+
+        // A cold overlay state cache costs a binder call, load it on the
+        // apply thread and bind the overlay preferences once it is warm
+        ThemeApplyExecutor.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                mOverlayStateCache.load();
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                if (isAdded()) {
+                    bindOverlayState();
+                }
+            }
+        });
+
+        setWallpaperPreview();
+        updateThemeScheduleSummary();
+        updateRestorePref();
+    }
+
+    private void bindOverlayState() {
+        if (mOverlayStateCache.isEnabled("com.android.theme.bakedgreen.system")) {
             mThemeSwitch.setValue("6");
-        } else if (Utils.isThemeEnabled("com.android.theme.chocox.system")) {
+        } else if (mOverlayStateCache.isEnabled("com.android.theme.chocox.system")) {
             mThemeSwitch.setValue("5");
-        } else if (Utils.isThemeEnabled("com.android.theme.solarizeddark.system")) {
+        } else if (mOverlayStateCache.isEnabled("com.android.theme.solarizeddark.system")) {
             mThemeSwitch.setValue("4");
-        } else if (Utils.isThemeEnabled("com.android.theme.pitchblack.system")) {
+        } else if (mOverlayStateCache.isEnabled("com.android.theme.pitchblack.system")) {
             mThemeSwitch.setValue("3");
         } else if (mUiModeManager != null) {
             if (mUiModeManager.getNightMode() == UiModeManager.MODE_NIGHT_YES) {
@@ -284,62 +279,20 @@ public class Themes extends PreferenceFragment implements ThemesListener {
         }
         mThemeSwitch.setSummary(mThemeSwitch.getEntry());
 
-        // Font picker
-        mFontPicker = (ListPreference) findPreference(PREF_FONT_PICKER);
-        int fontPickerValue = getOverlayPosition(ThemesUtils.FONTS);
-        if (fontPickerValue != -1) {
-            mFontPicker.setValue(String.valueOf(fontPickerValue + 2));
-        } else {
-            mFontPicker.setValue("1");
-        }
-        mFontPicker.setSummary(mFontPicker.getEntry());
-
-        // Adaptive icon shape
-        mAdaptiveIconShape = (ListPreference) findPreference(PREF_ADAPTIVE_ICON_SHAPE);
-        int iconShapeValue = getOverlayPosition(ThemesUtils.ADAPTIVE_ICON_SHAPE);
-        if (iconShapeValue != -1) {
-            mAdaptiveIconShape.setValue(String.valueOf(iconShapeValue + 2));
-        } else {
-            mAdaptiveIconShape.setValue("1");
-        }
-        mAdaptiveIconShape.setSummary(mAdaptiveIconShape.getEntry());
-
-        // Statusbar icons
-        mStatusbarIcons = (ListPreference) findPreference(PREF_STATUSBAR_ICONS);
-        int sbIconsValue = getOverlayPosition(ThemesUtils.STATUSBAR_ICONS);
-        if (sbIconsValue != -1) {
-            mStatusbarIcons.setValue(String.valueOf(sbIconsValue + 2));
-        } else {
-            mStatusbarIcons.setValue("1");
-        }
-        mStatusbarIcons.setSummary(mStatusbarIcons.getEntry());
-
-        // Statusbar icons
-        mQsHeaderStyle = (ListPreference) findPreference(PREF_QS_HEADER_STYLE);
-        int qsStyleValue = getOverlayPosition(ThemesUtils.QS_HEADER_THEMES);
-        if (qsStyleValue != -1) {
-            mQsHeaderStyle.setValue(String.valueOf(qsStyleValue + 2));
-        } else {
-            mQsHeaderStyle.setValue("1");
-        }
-        mQsHeaderStyle.setSummary(mQsHeaderStyle.getEntry());
-
-        // Statusbar icons
-        mSwitchStyle = (ListPreference) findPreference(PREF_SWITCH_STYLE);
-        int switchStyleValue = getOverlayPosition(ThemesUtils.SWITCH_STYLE);
-        if (switchStyleValue != -1) {
-            mSwitchStyle.setValue(String.valueOf(switchStyleValue + 2));
-        } else {
-            mSwitchStyle.setValue("1");
+        // Overlay families
+        for (OverlayFamily family : OverlayFamily.values()) {
+            int position = mOverlayStateCache.getPosition(family);
+            if (family.isPicker()) {
+                if (position != -1) {
+                    mSharedPreferences.edit().putString(family.getKey(),
+                            family.getValue(position)).apply();
+                }
+            } else {
+                ListPreference preference = (ListPreference) findPreference(family.getKey());
+                preference.setValue(family.getValue(position));
+            }
+            updateOverlaySummary(family);
         }
-        mSwitchStyle.setSummary(mSwitchStyle.getEntry());
-
-        setWallpaperPreview();
-        updateAccentSummary();
-        updateNavbarSummary();
-        updateThemeScheduleSummary();
-        updateBackupPref();
-        updateRestorePref();
     }
 
     private void setWallpaperPreview() {
@@ -348,228 +301,91 @@ public class Themes extends PreferenceFragment implements ThemesListener {
         mWpPreview.setIcon(wallpaperDrawable);
     }
 
-    private void updateBackupPref() {
-        mBackupThemes.setEnabled(getThemeCount() < mBackupLimit ? true : false);
-        if (getThemeCount() == mBackupLimit) {
-            mBackupThemes.setSummary(R.string.theme_backup_reach_limit_summary);
-        } else {
-            mBackupThemes.setSummary(R.string.theme_backup_summary);
-        }
-    }
-
-    private void updateRestorePref() {
-        mRestoreThemes.setEnabled(getThemeCount() > 0 ? true : false);
-        if (getThemeCount() == 0) {
-            mRestoreThemes.setSummary(R.string.theme_restore_no_backup_summary);
-        } else {
-            mRestoreThemes.setSummary(R.string.theme_restore_summary);
-        }
-    }
-
-    private int getThemeCount() {
-        int count = mThemeDatabase.getThemeDbUtilsCount();
-        return count;
-    }
-
-    private int getOverlayPosition(String[] overlays) {
-        int position = -1;
-        for (int i = 0; i < overlays.length; i++) {
-            String overlay = overlays[i];
-            if (Utils.isThemeEnabled(overlay)) {
-                position = i;
+    private final ThemeObserver mThemeDatabaseObserver = new ThemeObserver() {
+        @Override
+        public void onChanged() {
+            if (isAdded()) {
+                updateRestorePref();
             }
         }
-        return position;
-    }
 
-    private String getOverlayName(String[] overlays) {
-        String overlayName = null;
-        for (int i = 0; i < overlays.length; i++) {
-            String overlay = overlays[i];
-            if (Utils.isThemeEnabled(overlay)) {
-                overlayName = overlay;
+        @Override
+        public void onThemeInserted(int id) {
+            if (isAdded()) {
+                setRestoreEnabled(true);
             }
         }
-        return overlayName;
-    }
 
-    public OnSharedPreferenceChangeListener mSharedPrefListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
         @Override
-        public void onSharedPreferenceChanged(final SharedPreferences sharedPreferences, String key) {
-            class FontPicker extends AsyncTask<Void, Void, Void> {
-
-                protected Void doInBackground(Void... param) {
-                    return null;
-                }
-
-                protected void onPostExecute(Void param) {
-                }
-
-                @Override
-                protected void onPreExecute() {
-                    super.onPreExecute();
-                    String fontType = sharedPreferences.getString(PREF_FONT_PICKER, "1");
-                    String overlayName = getOverlayName(ThemesUtils.FONTS);
-                    int fontTypeValue = Integer.parseInt(fontType);
-                    if (overlayName != null) {
-                        handleOverlays(overlayName, false, mOverlayManager);
-                    }
-                    if (fontTypeValue > 1) {
-                        handleOverlays(ThemesUtils.FONTS[fontTypeValue - 2],
-                                true, mOverlayManager);
-                    }
-                    mFontPicker.setSummary(mFontPicker.getEntry());
-                }
-            }
+        public void onThemeUpdated(int id) {
+            // A rename leaves the restore entry as it is
+        }
 
-            if (key.equals(PREF_THEME_ACCENT_COLOR)) {
-                String accentColor = sharedPreferences.getString(PREF_THEME_ACCENT_COLOR, "default");
-                String overlayName = getOverlayName(ThemesUtils.ACCENTS);
-                if (overlayName != null) {
-                    handleOverlays(overlayName, false, mOverlayManager);
-                }
-                if (accentColor != "default") {
-                    handleOverlays(accentColor, true, mOverlayManager);
-                }
-                updateAccentSummary();
+        @Override
+        public void onThemeDeleted(int id) {
+            if (isAdded()) {
+                updateRestorePref();
             }
+        }
+    };
 
-            if (key.equals(PREF_THEME_NAVBAR_STYLE)) {
-                String navbarStyle = sharedPreferences.getString(PREF_THEME_NAVBAR_STYLE, "default");
-                String overlayName = getOverlayName(ThemesUtils.NAVBAR_STYLES);
-                if (overlayName != null) {
-                    handleOverlays(overlayName, false, mOverlayManager);
-                }
-                if (navbarStyle != "default") {
-                    handleOverlays(navbarStyle, true, mOverlayManager);
+    private void updateRestorePref() {
+        mThemeRepository.getThemeCount(new ThemeRepository.Callback<Integer>() {
+            @Override
+            public void onResult(Integer count) {
+                if (isAdded()) {
+                    setRestoreEnabled(count > 0);
                 }
-                updateNavbarSummary();
-            }
-
-            if (key.equals(PREF_FONT_PICKER)) {
-                new FontPicker().execute();
             }
+        });
+    }
 
-            if (key.equals(PREF_ADAPTIVE_ICON_SHAPE)) {
-                String adapativeIconShape = sharedPreferences.getString(PREF_ADAPTIVE_ICON_SHAPE, "1");
-                String overlayName = getOverlayName(ThemesUtils.ADAPTIVE_ICON_SHAPE);
-                int adapativeIconShapeValue = Integer.parseInt(adapativeIconShape);
-                if (overlayName != null) {
-                    handleOverlays(overlayName, false, mOverlayManager);
-                }
-                if (adapativeIconShapeValue > 1) {
-                    handleOverlays(ThemesUtils.ADAPTIVE_ICON_SHAPE[adapativeIconShapeValue - 2],
-                            true, mOverlayManager);
-                }
-                mAdaptiveIconShape.setSummary(mAdaptiveIconShape.getEntry());
-            }
+    private void setRestoreEnabled(boolean enabled) {
+        mRestoreThemes.setEnabled(enabled);
+        if (enabled) {
+            mRestoreThemes.setSummary(R.string.theme_restore_summary);
+        } else {
+            mRestoreThemes.setSummary(R.string.theme_restore_no_backup_summary);
+        }
+    }
 
-            if (key.equals(PREF_STATUSBAR_ICONS)) {
-                String statusbarIcons = sharedPreferences.getString(PREF_STATUSBAR_ICONS, "1");
-                String overlayName = getOverlayName(ThemesUtils.STATUSBAR_ICONS);
-                int statusbarIconsValue = Integer.parseInt(statusbarIcons);
-                if (overlayName != null) {
-                    handleOverlays(overlayName, false, mOverlayManager);
-                }
-                if (statusbarIconsValue > 1) {
-                    handleOverlays(ThemesUtils.STATUSBAR_ICONS[statusbarIconsValue - 2],
-                            true, mOverlayManager);
-                }
-                mStatusbarIcons.setSummary(mStatusbarIcons.getEntry());
-            }
+    // Preference changes delivered in the same looper pass (e.g. a reset or
+    // a restored theme) share one transaction and are committed together
+    // on the theme apply thread.
+    private OverlayTransaction getOverlayTransaction() {
+        return ThemeApplyExecutor.getInstance().getPendingTransaction(
+                mContext, mOverlayManager, mUpdateOverlaySummaries);
+    }
 
-            if (key.equals(PREF_QS_HEADER_STYLE)) {
-                String qsHeaderStyle = sharedPreferences.getString(PREF_QS_HEADER_STYLE, "1");
-                String overlayName = getOverlayName(ThemesUtils.QS_HEADER_THEMES);
-                int qsHeaderStyleValue = Integer.parseInt(qsHeaderStyle);
-                if (overlayName != null) {
-                    handleOverlays(overlayName, false, mOverlayManager);
-                }
-                if (qsHeaderStyleValue > 1) {
-                    handleOverlays(ThemesUtils.QS_HEADER_THEMES[qsHeaderStyleValue - 2],
-                            true, mOverlayManager);
+    private final Runnable mUpdateOverlaySummaries = new Runnable() {
+        @Override
+        public void run() {
+            if (isAdded()) {
+                for (OverlayFamily family : OverlayFamily.values()) {
+                    if (family.isPicker()) {
+                        updateOverlaySummary(family);
+                    }
                 }
-                mQsHeaderStyle.setSummary(mQsHeaderStyle.getEntry());
             }
+        }
+    };
 
-            if (key.equals(PREF_SWITCH_STYLE)) {
-                String switchStyle = sharedPreferences.getString(PREF_SWITCH_STYLE, "1");
-                String overlayName = getOverlayName(ThemesUtils.SWITCH_STYLE);
-                int switchStyleValue = Integer.parseInt(switchStyle);
-                if (overlayName != null) {
-                    handleOverlays(overlayName, false, mOverlayManager);
-                }
-                if (switchStyleValue > 1) {
-                    handleOverlays(ThemesUtils.SWITCH_STYLE[switchStyleValue - 2],
-                            true, mOverlayManager);
+    public OnSharedPreferenceChangeListener mSharedPrefListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(final SharedPreferences sharedPreferences, String key) {
+            OverlayFamily family = OverlayFamily.forKey(key);
+            if (family != null) {
+                String value = sharedPreferences.getString(key, family.getDefaultValue());
+                getOverlayTransaction().setExclusive(family, family.getTarget(value));
+                // Picker summaries follow the overlay state once committed
+                if (!family.isPicker()) {
+                    updateOverlaySummary(family);
                 }
-                mSwitchStyle.setSummary(mSwitchStyle.getEntry());
             }
 
             if (key.equals(PREF_THEME_SWITCH)) {
                 String themeSwitch = sharedPreferences.getString(PREF_THEME_SWITCH, "1");
-                switch (themeSwitch) {
-                    case "1":
-                        handleBackgrounds(false, mContext, UiModeManager.MODE_NIGHT_NO,
-                                ThemesUtils.PITCH_BLACK, mOverlayManager);
-                        handleBackgrounds(false, mContext, UiModeManager.MODE_NIGHT_NO,
-                                ThemesUtils.SOLARIZED_DARK, mOverlayManager);
-                        handleBackgrounds(false, mContext, UiModeManager.MODE_NIGHT_NO,
-                                ThemesUtils.CHOCO_X, mOverlayManager);
-                        handleBackgrounds(false, mContext, UiModeManager.MODE_NIGHT_NO,
-                                ThemesUtils.BAKED_GREEN, mOverlayManager);
-                        break;
-                    case "2":
-                        handleBackgrounds(false, mContext, UiModeManager.MODE_NIGHT_YES,
-                                ThemesUtils.PITCH_BLACK, mOverlayManager);
-                        handleBackgrounds(false, mContext, UiModeManager.MODE_NIGHT_YES,
-                                ThemesUtils.SOLARIZED_DARK, mOverlayManager);
-                        handleBackgrounds(false, mContext, UiModeManager.MODE_NIGHT_YES,
-                                ThemesUtils.CHOCO_X, mOverlayManager);
-                        handleBackgrounds(false, mContext, UiModeManager.MODE_NIGHT_YES,
-                                ThemesUtils.BAKED_GREEN, mOverlayManager);
-                        break;
-                    case "3":
-                        handleBackgrounds(true, mContext, UiModeManager.MODE_NIGHT_YES,
-                                ThemesUtils.PITCH_BLACK, mOverlayManager);
-                        handleBackgrounds(false, mContext, UiModeManager.MODE_NIGHT_YES,
-                                ThemesUtils.SOLARIZED_DARK, mOverlayManager);
-                        handleBackgrounds(false, mContext, UiModeManager.MODE_NIGHT_YES,
-                                ThemesUtils.CHOCO_X, mOverlayManager);
-                        handleBackgrounds(false, mContext, UiModeManager.MODE_NIGHT_YES,
-                                ThemesUtils.BAKED_GREEN, mOverlayManager);
-                        break;
-                    case "4":
-                        handleBackgrounds(false, mContext, UiModeManager.MODE_NIGHT_YES,
-                                ThemesUtils.PITCH_BLACK, mOverlayManager);
-                        handleBackgrounds(true, mContext, UiModeManager.MODE_NIGHT_YES,
-                                ThemesUtils.SOLARIZED_DARK, mOverlayManager);
-                        handleBackgrounds(false, mContext, UiModeManager.MODE_NIGHT_YES,
-                                ThemesUtils.CHOCO_X, mOverlayManager);
-                        handleBackgrounds(false, mContext, UiModeManager.MODE_NIGHT_YES,
-                                ThemesUtils.BAKED_GREEN, mOverlayManager);
-                        break;
-                    case "5":
-                        handleBackgrounds(false, mContext, UiModeManager.MODE_NIGHT_YES,
-                                ThemesUtils.PITCH_BLACK, mOverlayManager);
-                        handleBackgrounds(false, mContext, UiModeManager.MODE_NIGHT_YES,
-                                ThemesUtils.SOLARIZED_DARK, mOverlayManager);
-                        handleBackgrounds(true, mContext, UiModeManager.MODE_NIGHT_YES,
-                                ThemesUtils.CHOCO_X, mOverlayManager);
-                        handleBackgrounds(false, mContext, UiModeManager.MODE_NIGHT_YES,
-                                ThemesUtils.BAKED_GREEN, mOverlayManager);
-                        break;
-                    case "6":
-                        handleBackgrounds(false, mContext, UiModeManager.MODE_NIGHT_YES,
-                                ThemesUtils.PITCH_BLACK, mOverlayManager);
-                        handleBackgrounds(false, mContext, UiModeManager.MODE_NIGHT_YES,
-                                ThemesUtils.SOLARIZED_DARK, mOverlayManager);
-                        handleBackgrounds(false, mContext, UiModeManager.MODE_NIGHT_YES,
-                                ThemesUtils.CHOCO_X, mOverlayManager);
-                        handleBackgrounds(true, mContext, UiModeManager.MODE_NIGHT_YES,
-                                ThemesUtils.BAKED_GREEN, mOverlayManager);
-                        break;
-                }
+                getOverlayTransaction().setThemeSwitch(themeSwitch);
                 mThemeSwitch.setSummary(mThemeSwitch.getEntry());
             }
         }
@@ -582,18 +398,11 @@ public class Themes extends PreferenceFragment implements ThemesListener {
         mUseSharedPrefListener = listener;
     }
 
-    @Override
-    public void onCloseBackupDialog(DialogFragment dialog) {
-        updateBackupPref();
-        updateRestorePref();
-    }
-
     @Override
     public void onResume() {
         super.onResume();
         mSharedPreferences.registerOnSharedPreferenceChangeListener(mSharedPrefListener);
         setWallpaperPreview();
-        updateBackupPref();
         updateRestorePref();
         updateThemeScheduleSummary();
     }
@@ -616,6 +425,12 @@ public class Themes extends PreferenceFragment implements ThemesListener {
         updateThemeScheduleSummary();
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mThemeRepository.unregisterObserver(mThemeDatabaseObserver);
+    }
+
     private void updateThemeScheduleSummary() {
         if (mThemeSchedule != null) {
             if (getThemeSchedule(mSharedPreferences).equals("1")) {
@@ -629,25 +444,21 @@ public class Themes extends PreferenceFragment implements ThemesListener {
         }
     }
 
-    private void updateAccentSummary() {
-        if (mAccentPicker != null) {
-            int value = getOverlayPosition(ThemesUtils.ACCENTS);
-            if (value != -1) {
-                mAccentPicker.setSummary(mAccentName[value]);
-            } else {
-                mAccentPicker.setSummary(mContext.getString(R.string.theme_accent_picker_default));
-            }
+    private void updateOverlaySummary(OverlayFamily family) {
+        Preference preference = findPreference(family.getPreferenceKey());
+        if (preference == null) {
+            return;
         }
-    }
-
-    private void updateNavbarSummary() {
-        if (mNavbarPicker != null) {
-            int value = getOverlayPosition(ThemesUtils.NAVBAR_STYLES);
-            if (value != -1) {
-                mNavbarPicker.setSummary(mNavbarName[value]);
+        if (family.isPicker()) {
+            int position = mOverlayStateCache.getPosition(family);
+            if (position != -1) {
+                preference.setSummary(getResources().getStringArray(
+                        family.getSummaries())[position]);
             } else {
-                mNavbarPicker.setSummary(R.string.theme_accent_picker_default);
+                preference.setSummary(R.string.theme_accent_picker_default);
             }
+        } else {
+            preference.setSummary(((ListPreference) preference).getEntry());
         }
     }
 
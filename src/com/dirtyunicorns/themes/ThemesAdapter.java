@@ -21,8 +21,6 @@ import static com.dirtyunicorns.themes.utils.Utils.threeButtonNavbarEnabled;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Color;
 import android.graphics.drawable.AdaptiveIconDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.ShapeDrawable;
@@ -32,7 +30,6 @@ import android.graphics.Path;
 import android.graphics.PorterDuff.Mode;
 import android.graphics.Typeface;
 import android.os.AsyncTask;
-import android.util.PathParser;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -45,8 +42,8 @@ import androidx.core.graphics.ColorUtils;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.dirtyunicorns.themes.utils.ThemesListItem;
+import com.dirtyunicorns.themes.utils.WallpaperThumbnail;
 
-import java.io.File;
 import java.util.List;
 
 public class ThemesAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
@@ -213,8 +210,7 @@ public class ThemesAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
     @Override
     public int getItemViewType(int position) {
         ThemesListItem themes = mThemesList.get(position);
-        int themeViewType = Integer.parseInt(themes.getThemeSbIcons());
-        return themeViewType;
+        return themes.getThemeSbIcons();
     }
 
     @NonNull
@@ -244,14 +240,14 @@ public class ThemesAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
     @Override
     public void onBindViewHolder(final RecyclerView.ViewHolder holder, final int position) {
         ThemesListItem themes = mThemesList.get(position);
-        mIsNightMode = Boolean.parseBoolean(themes.getThemeDayOrNight());
-        mThemeNightColor = Color.parseColor(themes.getThemeNightColor());
-        mThemeFont = Integer.parseInt(themes.getThemeFont());
+        mIsNightMode = themes.isNightMode();
+        mThemeNightColor = themes.getThemeNightColor();
+        mThemeFont = themes.getThemeFont();
         mThemeWpBackup = themes.getThemeWp();
-        int bgQsAccent = Color.parseColor(themes.getThemeAccent());
+        int bgQsAccent = themes.getThemeAccent();
         int qsTileBgInactive, qsTileIconInactive, qsTileIconActive;
         String themeNavbarStyle = themes.getThemeNavbarStyle();
-        String pathShape = themes.getThemeIconShape();
+        Path pathShape = themes.getThemeIconShape();
         String themeName = themes.getThemeName();
         if (!mIsNightMode) {
             qsTileBgInactive = mResources.getColor(R.color.qs_tile_background_inactive_day);
@@ -265,7 +261,7 @@ public class ThemesAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         switch (holder.getItemViewType()) {
             case 1:
                 ViewHolderMain viewHolderMain = (ViewHolderMain) holder;
-                new ThemeWallpaper(viewHolderMain.mWpBgMain).execute();
+                new ThemeWallpaper(viewHolderMain.mWpBgMain, mThemeWpBackup).execute();
                 viewHolderMain.mLlBgMain.setBackground(getThemeDayNightBg());
                 viewHolderMain.mQsAccentMainWifi.setImageDrawable(
                     getShapeDrawable(pathShape, bgQsAccent));
@@ -298,7 +294,7 @@ public class ThemesAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
                 break;
             case 2:
                 ViewHolderFilled viewHolderFilled = (ViewHolderFilled) holder;
-                new ThemeWallpaper(viewHolderFilled.mWpBgFilled).execute();
+                new ThemeWallpaper(viewHolderFilled.mWpBgFilled, mThemeWpBackup).execute();
                 viewHolderFilled.mLlBgMainFilled.setBackground(getThemeDayNightBg());
                 viewHolderFilled.mQsAccentMainFilledWifi.setImageDrawable(
                     getShapeDrawable(pathShape, bgQsAccent));
@@ -331,7 +327,7 @@ public class ThemesAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
                 break;
             case 3:
                 ViewHolderRounded viewHolderRounded = (ViewHolderRounded) holder;
-                new ThemeWallpaper(viewHolderRounded.mWpBgRounded).execute();
+                new ThemeWallpaper(viewHolderRounded.mWpBgRounded, mThemeWpBackup).execute();
                 viewHolderRounded.mLlBgMainRounded.setBackground(getThemeDayNightBg());
                 viewHolderRounded.mQsAccentMainRoundedWifi.setImageDrawable(
                     getShapeDrawable(pathShape, bgQsAccent));
@@ -364,7 +360,7 @@ public class ThemesAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
                 break;
             case 4:
                 ViewHolderCircular viewHolderCircular = (ViewHolderCircular) holder;
-                new ThemeWallpaper(viewHolderCircular.mWpBgCircular).execute();
+                new ThemeWallpaper(viewHolderCircular.mWpBgCircular, mThemeWpBackup).execute();
                 viewHolderCircular.mLlBgMainCircular.setBackground(getThemeDayNightBg());
                 viewHolderCircular.mQsAccentMainCircularWifi.setImageDrawable(
                     getShapeDrawable(pathShape, bgQsAccent));
@@ -400,9 +396,12 @@ public class ThemesAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
 
     public class ThemeWallpaper extends AsyncTask<Void, Void, Bitmap> {
         ImageView imageView;
+        // Bound now, mThemeWpBackup belongs to whichever theme binds next
+        String wallpaperPath;
 
-        public ThemeWallpaper(ImageView imgView) {
+        public ThemeWallpaper(ImageView imgView, String wpPath) {
             imageView = imgView;
+            wallpaperPath = wpPath;
         }
 
         @Override
@@ -411,9 +410,10 @@ public class ThemesAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         }
 
         protected Bitmap doInBackground(Void... params) {
-            File file = new File(mThemeWpBackup);
-            Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
-            return bitmap;
+            if (wallpaperPath == null) {
+                return null;
+            }
+            return WallpaperThumbnail.load(mContext, wallpaperPath);
         }
 
         protected void onPostExecute(Bitmap bitmap) {
@@ -519,10 +519,10 @@ public class ThemesAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         return fontType;
     }
 
-    private ShapeDrawable getShapeDrawable(String path, int color) {
+    private ShapeDrawable getShapeDrawable(Path path, int color) {
         ShapeDrawable shapeDrawable = new ShapeDrawable();
         final float pathSize = AdaptiveIconDrawable.MASK_SIZE;
-        final Path shapePath = new Path(PathParser.createPathFromPathData(path));
+        final Path shapePath = new Path(path);
         final int shapeSize = mResources.getDimensionPixelSize(R.dimen.dashboard_tile_image_size);
         shapeDrawable.setIntrinsicWidth(shapeSize);
         shapeDrawable.setIntrinsicHeight(shapeSize);
@@ -14,12 +14,25 @@
  * limitations under the License.
  */
 
-package com.dirtyunicorns.themes;
+package com.dirtyunicorns.themes.db;
 
-import android.app.DialogFragment;
+import android.database.sqlite.SQLiteDatabase;
 
-public interface ThemesListener {
+/**
+ * One schema step of {@link ThemeDatabase}, from {@link #getStartVersion()}
+ * to the version after it. A step must keep every saved theme.
+ */
+abstract class Migration {
+
+    private final int mStartVersion;
+
+    Migration(int startVersion) {
+        mStartVersion = startVersion;
+    }
 
-    public void onCloseBackupDialog(DialogFragment dialog);
+    int getStartVersion() {
+        return mStartVersion;
+    }
 
+    abstract void migrate(SQLiteDatabase db);
 }
@@ -19,19 +19,59 @@ package com.dirtyunicorns.themes.db;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.Observable;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+import android.util.Log;
+import android.util.PathParser;
 
+import com.dirtyunicorns.themes.utils.OverlayFamily;
 import com.dirtyunicorns.themes.utils.ThemeDbUtils;
+import com.dirtyunicorns.themes.utils.ThemeSwitchPlan;
+import com.dirtyunicorns.themes.utils.WallpaperCodec;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+/**
+ * Saved themes. One instance, and so one open connection, serves the
+ * whole process: get it with {@link #getInstance(Context)} and never
+ * close it. The database runs in write-ahead logging mode so reads don't
+ * wait for a backup being written. Theme names are unique and indexed.
+ * The number of saved themes is kept in memory, and registered
+ * {@link ThemeObserver}s are told the id of every inserted, updated or
+ * deleted theme on the main thread.
+ *
+ * Schema changes never drop data: bump DATABASE_VERSION, update onCreate(),
+ * append a {@link Migration} from the previous version to MIGRATIONS and
+ * add a database of the previous version to ThemeDatabaseMigrationTest.
+ */
 public class ThemeDatabase extends SQLiteOpenHelper {
 
-    private static final int DATABASE_VERSION = 1;
+    private static final String TAG = "ThemeDatabase";
+
+    private static final int DATABASE_VERSION = 4;
     private static final String DATABASE_NAME = "themeDb";
     private static final String THEME_TABLE = "themeTableDb";
+    private static final String THEME_NAME_INDEX = "themeNameIndex";
     private static final String KEY_ID = "id";
     private static final String KEY_THEME_NAME = "themeName";
     private static final String KEY_THEME_DAY_NIGHT = "themeDayNight";
@@ -45,144 +85,668 @@ public class ThemeDatabase extends SQLiteOpenHelper {
     private static final String KEY_THEME_SB_ICONS = "themeSbIcons";
     private static final String KEY_THEME_WP = "themeWp";
     private static final String KEY_THEME_NAVBAR_STYLE = "themeNavbarStyle";
+    private static final String KEY_THEME_WP_CODEC = "themeWpCodec";
+    private static final String[] THEME_COLUMNS = { KEY_ID, KEY_THEME_NAME,
+            KEY_THEME_DAY_NIGHT, KEY_THEME_ACCENT, KEY_THEME_NIGHT_COLOR,
+            KEY_ACCENT_PICKER, KEY_THEME_SWITCH, KEY_ADAPTATIVE_ICON_SHAPE,
+            KEY_THEME_FONT, KEY_THEME_ICON_SHAPE, KEY_THEME_SB_ICONS,
+            KEY_THEME_WP, KEY_THEME_NAVBAR_STYLE, KEY_THEME_WP_CODEC };
+
+    private static final String INSERT_COLUMNS = "(" + KEY_THEME_NAME + ", "
+            + KEY_THEME_DAY_NIGHT + ", " + KEY_THEME_ACCENT + ", " + KEY_THEME_NIGHT_COLOR + ", "
+            + KEY_ACCENT_PICKER + ", " + KEY_THEME_SWITCH + ", " + KEY_ADAPTATIVE_ICON_SHAPE + ", "
+            + KEY_THEME_FONT + ", " + KEY_THEME_ICON_SHAPE + ", " + KEY_THEME_SB_ICONS + ", "
+            + KEY_THEME_WP + ", " + KEY_THEME_NAVBAR_STYLE + ", " + KEY_THEME_WP_CODEC + ") VALUES "
+            + "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    // Rows between two progress reports of an import or export
+    private static final int PROGRESS_STEP = 100;
+    // Status bar icon layouts, one restore card layout each
+    private static final int MAX_SB_ICONS = 4;
+
+    /**
+     * Progress of {@link #importThemes} and {@link #exportThemes}, called
+     * on the thread doing the work every PROGRESS_STEP rows and once more
+     * when done.
+     */
+    public interface ProgressListener {
+        void onProgress(int rows, float rowsPerSecond);
+    }
+
+    private static ThemeDatabase sInstance;
 
-    public ThemeDatabase(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    private final ThemeObservable mObservable = new ThemeObservable();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private SQLiteStatement mInsertStatement;
+    private SQLiteStatement mDeleteStatement;
+    private SQLiteStatement mExistsStatement;
+    private SQLiteStatement mWallpaperRefsStatement;
+    // -1 until first asked for, then kept up to date by every write
+    private int mCount = -1;
+
+    public static synchronized ThemeDatabase getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ThemeDatabase(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ThemeDatabase(Context context) {
+        this(context, DATABASE_NAME);
+    }
+
+    // Upgrade tests open their fixture databases under a name of their own
+    ThemeDatabase(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
-        String CREATE_THEME_TABLE = "CREATE TABLE " + THEME_TABLE + "("
+        createThemeTable(db, THEME_TABLE);
+        createThemeNameIndex(db);
+    }
+
+    private static void createThemeTable(SQLiteDatabase db, String table) {
+        db.execSQL("CREATE TABLE " + table + "("
                 + KEY_ID + " INTEGER PRIMARY KEY," + KEY_THEME_NAME + " TEXT,"
-                + KEY_THEME_DAY_NIGHT + " TEXT," + KEY_THEME_ACCENT + " TEXT,"
-                + KEY_THEME_NIGHT_COLOR + " TEXT," + KEY_ACCENT_PICKER + " TEXT,"
+                + KEY_THEME_DAY_NIGHT + " INTEGER," + KEY_THEME_ACCENT + " INTEGER,"
+                + KEY_THEME_NIGHT_COLOR + " INTEGER," + KEY_ACCENT_PICKER + " TEXT,"
                 + KEY_THEME_SWITCH + " TEXT," + KEY_ADAPTATIVE_ICON_SHAPE + " TEXT,"
-                + KEY_THEME_FONT + " TEXT," + KEY_THEME_ICON_SHAPE + " TEXT,"
-                + KEY_THEME_SB_ICONS + " TEXT," + KEY_THEME_WP + " TEXT,"
-                + KEY_THEME_NAVBAR_STYLE + " TEXT" + ")";
-        db.execSQL(CREATE_THEME_TABLE);
+                + KEY_THEME_FONT + " INTEGER," + KEY_THEME_ICON_SHAPE + " TEXT,"
+                + KEY_THEME_SB_ICONS + " INTEGER," + KEY_THEME_WP + " TEXT,"
+                + KEY_THEME_NAVBAR_STYLE + " TEXT," + KEY_THEME_WP_CODEC + " TEXT" + ")");
     }
 
+    // Ordered by start version, one step per version
+    private static final Migration[] MIGRATIONS = {
+        new Migration(1) {
+            @Override
+            void migrate(SQLiteDatabase db) {
+                // Older versions did not enforce unique names on rename, keep
+                // the first theme of a name and number the others after their
+                // id, counting up further should that name be taken as well
+                Cursor cursor = db.rawQuery("SELECT " + KEY_ID + ", " + KEY_THEME_NAME
+                        + " FROM " + THEME_TABLE + " WHERE " + KEY_THEME_NAME + " IS NOT NULL"
+                        + " AND " + KEY_ID + " NOT IN (SELECT MIN(" + KEY_ID + ") FROM "
+                        + THEME_TABLE + " GROUP BY " + KEY_THEME_NAME + ")", null);
+                SQLiteStatement exists = db.compileStatement("SELECT COUNT(*) FROM "
+                        + THEME_TABLE + " WHERE " + KEY_THEME_NAME + " = ?");
+                SQLiteStatement rename = db.compileStatement("UPDATE " + THEME_TABLE
+                        + " SET " + KEY_THEME_NAME + " = ? WHERE " + KEY_ID + " = ?");
+                try {
+                    while (cursor.moveToNext()) {
+                        String base = cursor.getString(1) + " (" + cursor.getInt(0) + ")";
+                        String name = base;
+                        for (int i = 2; isNameTaken(exists, name); i++) {
+                            name = base + " (" + i + ")";
+                        }
+                        rename.bindString(1, name);
+                        rename.bindLong(2, cursor.getInt(0));
+                        rename.executeUpdateDelete();
+                    }
+                } finally {
+                    cursor.close();
+                    exists.close();
+                    rename.close();
+                }
+                createThemeNameIndex(db);
+            }
+
+            private boolean isNameTaken(SQLiteStatement exists, String name) {
+                exists.bindString(1, name);
+                return exists.simpleQueryForLong() > 0;
+            }
+        },
+        new Migration(2) {
+            @Override
+            void migrate(SQLiteDatabase db) {
+                // Night mode, colours, font and status bar icons were stored
+                // as the strings the UI parsed on every bind, convert them once
+                String oldTable = THEME_TABLE + "V2";
+                db.execSQL("ALTER TABLE " + THEME_TABLE + " RENAME TO " + oldTable);
+                db.execSQL("DROP INDEX " + THEME_NAME_INDEX);
+                createVersion3Table(db);
+                createThemeNameIndex(db);
+                Cursor cursor = db.query(oldTable, new String[] { KEY_ID, KEY_THEME_NAME,
+                        KEY_THEME_DAY_NIGHT, KEY_THEME_ACCENT, KEY_THEME_NIGHT_COLOR,
+                        KEY_ACCENT_PICKER, KEY_THEME_SWITCH, KEY_ADAPTATIVE_ICON_SHAPE,
+                        KEY_THEME_FONT, KEY_THEME_ICON_SHAPE, KEY_THEME_SB_ICONS,
+                        KEY_THEME_WP, KEY_THEME_NAVBAR_STYLE },
+                        null, null, null, null, null);
+                ContentValues values = new ContentValues();
+                while (cursor.moveToNext()) {
+                    values.clear();
+                    values.put(KEY_ID, cursor.getInt(0));
+                    values.put(KEY_THEME_NAME, cursor.getString(1));
+                    values.put(KEY_THEME_DAY_NIGHT, Boolean.parseBoolean(cursor.getString(2)));
+                    values.put(KEY_THEME_ACCENT, parseColor(cursor.getString(3)));
+                    values.put(KEY_THEME_NIGHT_COLOR, parseColor(cursor.getString(4)));
+                    values.put(KEY_ACCENT_PICKER, cursor.getString(5));
+                    values.put(KEY_THEME_SWITCH, cursor.getString(6));
+                    values.put(KEY_ADAPTATIVE_ICON_SHAPE, cursor.getString(7));
+                    values.put(KEY_THEME_FONT, Integer.parseInt(cursor.getString(8)));
+                    values.put(KEY_THEME_ICON_SHAPE, cursor.getString(9));
+                    values.put(KEY_THEME_SB_ICONS, Integer.parseInt(cursor.getString(10)));
+                    values.put(KEY_THEME_WP, cursor.getString(11));
+                    values.put(KEY_THEME_NAVBAR_STYLE, cursor.getString(12));
+                    db.insertOrThrow(THEME_TABLE, null, values);
+                }
+                cursor.close();
+                db.execSQL("DROP TABLE " + oldTable);
+            }
+
+            // The schema as of this step, later steps change it from here
+            private void createVersion3Table(SQLiteDatabase db) {
+                db.execSQL("CREATE TABLE " + THEME_TABLE + "("
+                        + KEY_ID + " INTEGER PRIMARY KEY," + KEY_THEME_NAME + " TEXT,"
+                        + KEY_THEME_DAY_NIGHT + " INTEGER," + KEY_THEME_ACCENT + " INTEGER,"
+                        + KEY_THEME_NIGHT_COLOR + " INTEGER," + KEY_ACCENT_PICKER + " TEXT,"
+                        + KEY_THEME_SWITCH + " TEXT," + KEY_ADAPTATIVE_ICON_SHAPE + " TEXT,"
+                        + KEY_THEME_FONT + " INTEGER," + KEY_THEME_ICON_SHAPE + " TEXT,"
+                        + KEY_THEME_SB_ICONS + " INTEGER," + KEY_THEME_WP + " TEXT,"
+                        + KEY_THEME_NAVBAR_STYLE + " TEXT" + ")");
+            }
+
+            // Backups wrote "#" + Integer.toHexString(color), which drops
+            // leading zeros of colours with a low alpha
+            private int parseColor(String color) {
+                try {
+                    return Color.parseColor(color);
+                } catch (IllegalArgumentException e) {
+                    return (int) Long.parseLong(color.substring(1), 16);
+                }
+            }
+        },
+        new Migration(3) {
+            @Override
+            void migrate(SQLiteDatabase db) {
+                // Every wallpaper backed up so far is a PNG
+                db.execSQL("ALTER TABLE " + THEME_TABLE + " ADD COLUMN "
+                        + KEY_THEME_WP_CODEC + " TEXT");
+                db.execSQL("UPDATE " + THEME_TABLE + " SET " + KEY_THEME_WP_CODEC + " = '"
+                        + WallpaperCodec.PNG.getId() + "' WHERE " + KEY_THEME_WP + " IS NOT NULL");
+            }
+        }
+    };
+
+    /**
+     * Runs every step from oldVersion on. SQLiteOpenHelper wraps the call
+     * in one transaction and only stores the new version once it returns,
+     * so a failing step leaves the database untouched at oldVersion.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + THEME_TABLE);
-        onCreate(db);
+        long start = SystemClock.elapsedRealtime();
+        for (int version = oldVersion; version < newVersion; version++) {
+            Migration migration = getMigration(version);
+            long stepStart = SystemClock.elapsedRealtime();
+            migration.migrate(db);
+            Log.i(TAG, "Migrated from version " + version + " to " + (version + 1)
+                    + " in " + (SystemClock.elapsedRealtime() - stepStart) + "ms");
+        }
+        Log.i(TAG, "Upgraded from version " + oldVersion + " to " + newVersion
+                + " in " + (SystemClock.elapsedRealtime() - start) + "ms");
+    }
+
+    private static Migration getMigration(int startVersion) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.getStartVersion() == startVersion) {
+                return migration;
+            }
+        }
+        throw new IllegalStateException("No migration from version " + startVersion);
     }
 
-    public void addThemeDbUtils(ThemeDbUtils themeDbUtils) {
+    private static void createThemeNameIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE UNIQUE INDEX " + THEME_NAME_INDEX + " ON "
+                + THEME_TABLE + "(" + KEY_THEME_NAME + ")");
+    }
+
+    /**
+     * @return false if a theme with the same name already exists
+     */
+    public synchronized boolean addThemeDbUtils(ThemeDbUtils themeDbUtils) {
+        if (mInsertStatement == null) {
+            mInsertStatement = getWritableDatabase().compileStatement(
+                    "INSERT INTO " + THEME_TABLE + INSERT_COLUMNS);
+        }
+        long id;
+        try {
+            bindThemeDbUtils(mInsertStatement, themeDbUtils);
+            id = mInsertStatement.executeInsert();
+        } catch (SQLiteConstraintException e) {
+            return false;
+        } finally {
+            mInsertStatement.clearBindings();
+        }
+        onRowChanged(ThemeObservable.INSERTED, (int) id);
+        return true;
+    }
+
+    // Arguments in INSERT_COLUMNS order
+    private static void bindThemeDbUtils(SQLiteStatement statement, ThemeDbUtils themeDbUtils) {
+        statement.bindString(1, themeDbUtils.getThemeName());
+        statement.bindLong(2, themeDbUtils.isNightMode() ? 1 : 0);
+        statement.bindLong(3, themeDbUtils.getThemeAccent());
+        statement.bindLong(4, themeDbUtils.getThemeNightColor());
+        bindStringOrNull(statement, 5, themeDbUtils.getAccentPicker());
+        bindStringOrNull(statement, 6, themeDbUtils.getThemeSwitch());
+        bindStringOrNull(statement, 7, themeDbUtils.getAdaptiveIconShape());
+        statement.bindLong(8, themeDbUtils.getThemeFont());
+        bindStringOrNull(statement, 9, themeDbUtils.getThemeIconShape());
+        statement.bindLong(10, themeDbUtils.getThemeSbIcons());
+        bindStringOrNull(statement, 11, themeDbUtils.getThemeWp());
+        bindStringOrNull(statement, 12, themeDbUtils.getThemeNavbarStyle());
+        bindStringOrNull(statement, 13, themeDbUtils.getThemeWpCodec());
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value != null) {
+            statement.bindString(index, value);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+
+    /**
+     * Add the themes of a library written by {@link #exportThemes} in one
+     * transaction. Themes whose name is already saved are skipped, missing
+     * preference values get their defaults. Nothing is added if the
+     * library can't be read or a theme has no usable name, icon shape,
+     * status bar icons, theme switch or overlay selection. Imported themes
+     * have no wallpaper.
+     *
+     * @return the number of themes added
+     */
+    public int importThemes(InputStream in, ProgressListener listener) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        int rows = 0;
+        int added = 0;
         SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement insert = db.compileStatement(
+                "INSERT OR IGNORE INTO " + THEME_TABLE + INSERT_COLUMNS);
+        JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        db.beginTransaction();
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                bindThemeDbUtils(insert, readJsonTheme(reader));
+                if (insert.executeInsert() != -1) {
+                    added++;
+                }
+                insert.clearBindings();
+                if (++rows % PROGRESS_STEP == 0) {
+                    reportProgress(listener, rows, start);
+                }
+            }
+            reader.endArray();
+            db.setTransactionSuccessful();
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Malformed theme library", e);
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+        float rowsPerSecond = reportProgress(listener, rows, start);
+        Log.i(TAG, "Imported " + added + " of " + rows + " themes at "
+                + rowsPerSecond + " rows/s");
+        if (added > 0) {
+            onRowsChanged();
+        }
+        return added;
+    }
 
-        ContentValues values = new ContentValues();
-        values.put(KEY_THEME_NAME, themeDbUtils.getThemeName());
-        values.put(KEY_THEME_DAY_NIGHT, themeDbUtils.getThemeDayOrNight());
-        values.put(KEY_THEME_ACCENT, themeDbUtils.getThemeAccent());
-        values.put(KEY_THEME_NIGHT_COLOR, themeDbUtils.getThemeNightColor());
-        values.put(KEY_ACCENT_PICKER, themeDbUtils.getAccentPicker());
-        values.put(KEY_THEME_SWITCH, themeDbUtils.getThemeSwitch());
-        values.put(KEY_ADAPTATIVE_ICON_SHAPE, themeDbUtils.getAdaptiveIconShape());
-        values.put(KEY_THEME_FONT, themeDbUtils.getThemeFont());
-        values.put(KEY_THEME_ICON_SHAPE, themeDbUtils.getThemeIconShape());
-        values.put(KEY_THEME_SB_ICONS, themeDbUtils.getThemeSbIcons());
-        values.put(KEY_THEME_WP, themeDbUtils.getThemeWp());
-        values.put(KEY_THEME_NAVBAR_STYLE, themeDbUtils.getThemeNavbarStyle());
-
-        db.insert(THEME_TABLE, null, values);
-        db.close();
+    /**
+     * Write every saved theme, oldest first, as a JSON array keyed by
+     * column name. Wallpapers are left out: their files only exist on this
+     * device.
+     *
+     * @return the number of themes written
+     */
+    public int exportThemes(OutputStream out, ProgressListener listener) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        int rows = 0;
+        Cursor cursor = getReadableDatabase().query(THEME_TABLE, THEME_COLUMNS,
+                null, null, null, null, KEY_ID + " ASC");
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        try {
+            writer.beginArray();
+            while (cursor.moveToNext()) {
+                writeJsonTheme(writer, readThemeDbUtils(cursor));
+                if (++rows % PROGRESS_STEP == 0) {
+                    reportProgress(listener, rows, start);
+                }
+            }
+            writer.endArray();
+            writer.flush();
+        } finally {
+            cursor.close();
+        }
+        float rowsPerSecond = reportProgress(listener, rows, start);
+        Log.i(TAG, "Exported " + rows + " themes at " + rowsPerSecond + " rows/s");
+        return rows;
+    }
+
+    private static float reportProgress(ProgressListener listener, int rows, long start) {
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - start);
+        float rowsPerSecond = rows * 1000f / elapsed;
+        if (listener != null) {
+            listener.onProgress(rows, rowsPerSecond);
+        }
+        return rowsPerSecond;
+    }
+
+    private static void writeJsonTheme(JsonWriter writer, ThemeDbUtils theme)
+            throws IOException {
+        writer.beginObject();
+        writer.name(KEY_THEME_NAME).value(theme.getThemeName());
+        writer.name(KEY_THEME_DAY_NIGHT).value(theme.isNightMode());
+        writer.name(KEY_THEME_ACCENT).value(theme.getThemeAccent());
+        writer.name(KEY_THEME_NIGHT_COLOR).value(theme.getThemeNightColor());
+        writer.name(KEY_ACCENT_PICKER).value(theme.getAccentPicker());
+        writer.name(KEY_THEME_SWITCH).value(theme.getThemeSwitch());
+        writer.name(KEY_ADAPTATIVE_ICON_SHAPE).value(theme.getAdaptiveIconShape());
+        writer.name(KEY_THEME_FONT).value(theme.getThemeFont());
+        writer.name(KEY_THEME_ICON_SHAPE).value(theme.getThemeIconShape());
+        writer.name(KEY_THEME_SB_ICONS).value(theme.getThemeSbIcons());
+        writer.name(KEY_THEME_NAVBAR_STYLE).value(theme.getThemeNavbarStyle());
+        writer.endObject();
+    }
+
+    private static ThemeDbUtils readJsonTheme(JsonReader reader) throws IOException {
+        String name = null;
+        boolean nightMode = false;
+        int accent = 0;
+        int nightColor = 0;
+        String accentPicker = OverlayFamily.ACCENT.getDefaultValue();
+        String themeSwitch = "1";
+        String adaptiveIconShape = OverlayFamily.ADAPTIVE_ICON_SHAPE.getDefaultValue();
+        int font = 1;
+        String iconShape = null;
+        int sbIcons = 1;
+        String navbarStyle = OverlayFamily.NAVBAR.getDefaultValue();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (key) {
+                case KEY_THEME_NAME:
+                    name = reader.nextString();
+                    break;
+                case KEY_THEME_DAY_NIGHT:
+                    nightMode = reader.nextBoolean();
+                    break;
+                case KEY_THEME_ACCENT:
+                    accent = reader.nextInt();
+                    break;
+                case KEY_THEME_NIGHT_COLOR:
+                    nightColor = reader.nextInt();
+                    break;
+                case KEY_ACCENT_PICKER:
+                    accentPicker = reader.nextString();
+                    break;
+                case KEY_THEME_SWITCH:
+                    themeSwitch = reader.nextString();
+                    break;
+                case KEY_ADAPTATIVE_ICON_SHAPE:
+                    adaptiveIconShape = reader.nextString();
+                    break;
+                case KEY_THEME_FONT:
+                    font = reader.nextInt();
+                    break;
+                case KEY_THEME_ICON_SHAPE:
+                    iconShape = reader.nextString();
+                    break;
+                case KEY_THEME_SB_ICONS:
+                    sbIcons = reader.nextInt();
+                    break;
+                case KEY_THEME_NAVBAR_STYLE:
+                    navbarStyle = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        if (name == null) {
+            throw new IllegalStateException("Theme without a name");
+        }
+        // The carousel draws every theme with its icon shape and status
+        // bar icon layout, a theme lacking either could never be shown
+        if (iconShape == null) {
+            throw new IllegalStateException("Theme " + name + " without an icon shape");
+        }
+        try {
+            PathParser.createPathFromPathData(iconShape);
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("Theme " + name + " with a bad icon shape", e);
+        }
+        if (sbIcons < 1 || sbIcons > MAX_SB_ICONS) {
+            throw new IllegalStateException("Theme " + name + " with status bar icons "
+                    + sbIcons);
+        }
+        // Applied as overlays and drawn by the carousel, a value outside
+        // its family would enable another overlay or none at all
+        checkOverlayValue(name, OverlayFamily.ACCENT, accentPicker);
+        checkOverlayValue(name, OverlayFamily.NAVBAR, navbarStyle);
+        checkOverlayValue(name, OverlayFamily.ADAPTIVE_ICON_SHAPE, adaptiveIconShape);
+        checkOverlayValue(name, OverlayFamily.FONT, String.valueOf(font));
+        if (!ThemeSwitchPlan.isValid(themeSwitch)) {
+            throw new IllegalStateException("Theme " + name + " with theme switch "
+                    + themeSwitch);
+        }
+        return new ThemeDbUtils(name, nightMode, accent, nightColor, accentPicker,
+                themeSwitch, adaptiveIconShape, font, iconShape, sbIcons, null, navbarStyle,
+                null);
+    }
+
+    private static void checkOverlayValue(String name, OverlayFamily family, String value) {
+        if (!family.isValidValue(value)) {
+            throw new IllegalStateException("Theme " + name + " with " + family.getKey()
+                    + " " + value);
+        }
+    }
+
+    public synchronized boolean hasThemeDbUtils(String str) {
+        if (mExistsStatement == null) {
+            mExistsStatement = getReadableDatabase().compileStatement(
+                    "SELECT COUNT(*) FROM " + THEME_TABLE + " WHERE " + KEY_THEME_NAME + " = ?");
+        }
+        mExistsStatement.bindString(1, str);
+        long count = mExistsStatement.simpleQueryForLong();
+        mExistsStatement.clearBindings();
+        return count > 0;
     }
 
     public ThemeDbUtils getThemeDbUtils(String str) {
+        return queryThemeDbUtils(KEY_THEME_NAME + " = ?", str);
+    }
+
+    public ThemeDbUtils getThemeDbUtils(int id) {
+        return queryThemeDbUtils(KEY_ID + " = ?", String.valueOf(id));
+    }
+
+    private ThemeDbUtils queryThemeDbUtils(String selection, String arg) {
         SQLiteDatabase db = getReadableDatabase();
 
-        Cursor cursor = db.query(THEME_TABLE, new String[] {KEY_ID, KEY_THEME_NAME,
-                        KEY_THEME_DAY_NIGHT, KEY_THEME_ACCENT, KEY_THEME_NIGHT_COLOR,
-                        KEY_ACCENT_PICKER, KEY_THEME_SWITCH, KEY_ADAPTATIVE_ICON_SHAPE,
-                        KEY_THEME_FONT, KEY_THEME_ICON_SHAPE, KEY_THEME_SB_ICONS,
-                        KEY_THEME_WP, KEY_THEME_NAVBAR_STYLE}, KEY_THEME_NAME + " = ?",
-                        new String[] {str}, null, null, null, null);
-        if (cursor != null) {
-            cursor.moveToFirst();
-        }
-
-        ThemeDbUtils themeDbUtils = new ThemeDbUtils(
-                Integer.parseInt(cursor.getString(0)),
-                cursor.getString(1), cursor.getString(2),
-                cursor.getString(3), cursor.getString(4),
-                cursor.getString(5), cursor.getString(6),
-                cursor.getString(7), cursor.getString(8),
-                cursor.getString(9), cursor.getString(10),
-                cursor.getString(11), cursor.getString(12));
+        Cursor cursor = db.query(THEME_TABLE, THEME_COLUMNS, selection,
+                        new String[] {arg}, null, null, null, null);
+        ThemeDbUtils themeDbUtils = cursor.moveToFirst() ? readThemeDbUtils(cursor) : null;
         cursor.close();
 
         return themeDbUtils;
     }
 
-    public List<ThemeDbUtils> getAllThemeDbUtils() {
+    /**
+     * Page through the saved themes, newest first. Pages are keyed by id so
+     * a theme added or deleted meanwhile does not shift later pages.
+     *
+     * @param beforeId id of the last theme of the previous page, or
+     *                 Integer.MAX_VALUE for the first page
+     */
+    public List<ThemeDbUtils> getThemeDbUtilsPage(int beforeId, int limit) {
         List<ThemeDbUtils> themeDbUtilsList = new ArrayList<>();
-        String selectQuery = "SELECT  * FROM " + THEME_TABLE;
 
-        SQLiteDatabase db = getWritableDatabase();
-        Cursor cursor = db.rawQuery(selectQuery, null);
-
-        if (cursor.moveToFirst()) {
-            do {
-                ThemeDbUtils themeDbUtils = new ThemeDbUtils();
-                themeDbUtils.setID(Integer.parseInt(cursor.getString(0)));
-                themeDbUtils.setThemeName(cursor.getString(1));
-                themeDbUtils.setThemeDayOrNight(cursor.getString(2));
-                themeDbUtils.setThemeAccent(cursor.getString(3));
-                themeDbUtils.setThemeNightColor(cursor.getString(4));
-                themeDbUtils.setAccentPicker(cursor.getString(5));
-                themeDbUtils.setThemeSwitch(cursor.getString(6));
-                themeDbUtils.setAdaptiveIconShape(cursor.getString(7));
-                themeDbUtils.setThemeFont(cursor.getString(8));
-                themeDbUtils.setThemeIconShape(cursor.getString(9));
-                themeDbUtils.setThemeSbIcons(cursor.getString(10));
-                themeDbUtils.setThemeWp(cursor.getString(11));
-                themeDbUtils.setThemeNavbarStyle(cursor.getString(12));
-                themeDbUtilsList.add(themeDbUtils);
-            } while (cursor.moveToNext());
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.query(THEME_TABLE, THEME_COLUMNS, KEY_ID + " < ?",
+                new String[] {String.valueOf(beforeId)}, null, null, KEY_ID + " DESC",
+                String.valueOf(limit));
+
+        while (cursor.moveToNext()) {
+            themeDbUtilsList.add(readThemeDbUtils(cursor));
         }
         cursor.close();
 
         return themeDbUtilsList;
     }
 
-    public void updateThemeDbUtils(ThemeDbUtils themeDbUtils, String str) {
-        SQLiteDatabase db = getWritableDatabase();
+    // Cursor columns in THEME_COLUMNS order
+    private static ThemeDbUtils readThemeDbUtils(Cursor cursor) {
+        return new ThemeDbUtils(cursor.getInt(0), cursor.getString(1),
+                cursor.getInt(2) != 0, cursor.getInt(3), cursor.getInt(4),
+                cursor.getString(5), cursor.getString(6), cursor.getString(7),
+                cursor.getInt(8), cursor.getString(9), cursor.getInt(10),
+                cursor.getString(11), cursor.getString(12), cursor.getString(13));
+    }
 
+    /**
+     * @return false if the new name is taken by another theme
+     */
+    public boolean renameThemeDbUtils(int id, String newName) {
         ContentValues values = new ContentValues();
-        values.put(KEY_THEME_NAME, themeDbUtils.getThemeName());
-        values.put(KEY_THEME_DAY_NIGHT, themeDbUtils.getThemeDayOrNight());
-        values.put(KEY_THEME_ACCENT, themeDbUtils.getThemeAccent());
-        values.put(KEY_THEME_NIGHT_COLOR, themeDbUtils.getThemeNightColor());
-        values.put(KEY_ACCENT_PICKER, themeDbUtils.getAccentPicker());
-        values.put(KEY_THEME_SWITCH, themeDbUtils.getThemeSwitch());
-        values.put(KEY_ADAPTATIVE_ICON_SHAPE, themeDbUtils.getAdaptiveIconShape());
-        values.put(KEY_THEME_FONT, themeDbUtils.getThemeFont());
-        values.put(KEY_THEME_ICON_SHAPE, themeDbUtils.getThemeIconShape());
-        values.put(KEY_THEME_SB_ICONS, themeDbUtils.getThemeSbIcons());
-        values.put(KEY_THEME_WP, themeDbUtils.getThemeWp());
-        values.put(KEY_THEME_NAVBAR_STYLE, themeDbUtils.getThemeNavbarStyle());
-
-        db.update(THEME_TABLE, values, KEY_THEME_NAME + " = ?",
-                new String[] {str});
-        db.close();
-    }
-
-    public void deleteThemeDbUtils(String str) {
-        SQLiteDatabase db = getWritableDatabase();
-        db.delete(THEME_TABLE, KEY_THEME_NAME + " = ?",
-                new String[] {str});
-        db.close();
+        values.put(KEY_THEME_NAME, newName);
+
+        try {
+            if (getWritableDatabase().updateWithOnConflict(THEME_TABLE, values,
+                    KEY_ID + " = ?", new String[] {String.valueOf(id)},
+                    SQLiteDatabase.CONFLICT_ABORT) > 0) {
+                onRowChanged(ThemeObservable.UPDATED, id);
+            }
+        } catch (SQLiteConstraintException e) {
+            return false;
+        }
+        return true;
     }
 
-    public int getThemeDbUtilsCount() {
-        String countQuery = "SELECT  * FROM " + THEME_TABLE;
-        SQLiteDatabase db = getReadableDatabase();
-        Cursor cursor = db.rawQuery(countQuery, null);
-        int count = cursor.getCount();
+    public synchronized void deleteThemeDbUtils(int id) {
+        if (mDeleteStatement == null) {
+            mDeleteStatement = getWritableDatabase().compileStatement(
+                    "DELETE FROM " + THEME_TABLE + " WHERE " + KEY_ID + " = ?");
+        }
+        mDeleteStatement.bindLong(1, id);
+        int deleted = mDeleteStatement.executeUpdateDelete();
+        mDeleteStatement.clearBindings();
+        if (deleted > 0) {
+            onRowChanged(ThemeObservable.DELETED, id);
+        }
+    }
+
+    /**
+     * @return how many saved themes use the wallpaper file at path
+     */
+    public synchronized int getWallpaperRefCount(String path) {
+        if (mWallpaperRefsStatement == null) {
+            mWallpaperRefsStatement = getReadableDatabase().compileStatement(
+                    "SELECT COUNT(*) FROM " + THEME_TABLE + " WHERE " + KEY_THEME_WP + " = ?");
+        }
+        mWallpaperRefsStatement.bindString(1, path);
+        long count = mWallpaperRefsStatement.simpleQueryForLong();
+        mWallpaperRefsStatement.clearBindings();
+        return (int) count;
+    }
+
+    public Set<String> getWallpaperPaths() {
+        Set<String> paths = new HashSet<>();
+        Cursor cursor = getReadableDatabase().query(true, THEME_TABLE,
+                new String[] {KEY_THEME_WP}, KEY_THEME_WP + " IS NOT NULL",
+                null, null, null, null, null);
+        while (cursor.moveToNext()) {
+            paths.add(cursor.getString(0));
+        }
         cursor.close();
+        return paths;
+    }
+
+    public synchronized int getThemeDbUtilsCount() {
+        if (mCount == -1) {
+            mCount = (int) DatabaseUtils.queryNumEntries(getReadableDatabase(), THEME_TABLE);
+        }
+        return mCount;
+    }
+
+    public void registerObserver(ThemeObserver observer) {
+        mObservable.registerObserver(observer);
+    }
 
-        return count;
+    public void unregisterObserver(ThemeObserver observer) {
+        mObservable.unregisterObserver(observer);
+    }
+
+    // Many rows at once: recount on demand and let observers reload
+    private void onRowsChanged() {
+        synchronized (this) {
+            mCount = -1;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mObservable.notifyChanged();
+            }
+        });
+    }
+
+    private void onRowChanged(final int change, final int id) {
+        synchronized (this) {
+            if (mCount != -1) {
+                if (change == ThemeObservable.INSERTED) {
+                    mCount++;
+                } else if (change == ThemeObservable.DELETED) {
+                    mCount--;
+                }
+            }
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mObservable.notifyRowChanged(change, id);
+            }
+        });
+    }
+
+    private static class ThemeObservable extends Observable<ThemeObserver> {
+
+        static final int INSERTED = 0;
+        static final int UPDATED = 1;
+        static final int DELETED = 2;
+
+        void notifyChanged() {
+            synchronized (mObservers) {
+                for (int i = mObservers.size() - 1; i >= 0; i--) {
+                    mObservers.get(i).onChanged();
+                }
+            }
+        }
+
+        void notifyRowChanged(int change, int id) {
+            synchronized (mObservers) {
+                // Backwards, so observers may unregister themselves
+                for (int i = mObservers.size() - 1; i >= 0; i--) {
+                    ThemeObserver observer = mObservers.get(i);
+                    if (change == INSERTED) {
+                        observer.onThemeInserted(id);
+                    } else if (change == UPDATED) {
+                        observer.onThemeUpdated(id);
+                    } else {
+                        observer.onThemeDeleted(id);
+                    }
+                }
+            }
+        }
     }
 }
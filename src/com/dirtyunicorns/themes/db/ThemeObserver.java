@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2020 The Dirty Unicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dirtyunicorns.themes.db;
+
+/**
+ * Row level changes of the saved themes, delivered on the main thread.
+ * Override the calls for the changes a screen can apply in place; the
+ * others fall back to {@link #onChanged()}.
+ */
+public abstract class ThemeObserver {
+
+    public void onChanged() {
+    }
+
+    public void onThemeInserted(int id) {
+        onChanged();
+    }
+
+    public void onThemeUpdated(int id) {
+        onChanged();
+    }
+
+    public void onThemeDeleted(int id) {
+        onChanged();
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2020 The Dirty Unicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dirtyunicorns.themes.db;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.dirtyunicorns.themes.utils.ThemeDbUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Asynchronous front of {@link ThemeDatabase} for the UI. Every call runs
+ * on one background thread, in submission order, so a page loaded after
+ * a delete never sees the deleted theme. Results are delivered on the
+ * main thread unless the returned future is cancelled before that, which
+ * is how activities drop callbacks when they go away. The main thread
+ * never touches the database file through this class.
+ */
+public class ThemeRepository {
+
+    private static final String TAG = "ThemeRepository";
+
+    /**
+     * Gets the result of a call on the main thread, or the exception it
+     * threw in onError(). The failure is logged either way, so callers
+     * only override onError() to leave a state waiting for the result.
+     */
+    public abstract static class Callback<T> {
+        public abstract void onResult(T result);
+
+        public void onError(Throwable error) {
+        }
+    }
+
+    private static ThemeRepository sInstance;
+
+    private final ThemeDatabase mDatabase;
+    // Set on the repository thread: resolving its directories touches disk
+    private WallpaperStore mWallpaperStore;
+    private final ExecutorService mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    public static synchronized ThemeRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ThemeRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ThemeRepository(final Context context) {
+        mDatabase = ThemeDatabase.getInstance(context);
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "ThemeRepository");
+            }
+        });
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mWallpaperStore = WallpaperStore.getInstance(context);
+                mWallpaperStore.collectGarbage();
+            }
+        });
+    }
+
+    public Future<Integer> getThemeCount(Callback<Integer> callback) {
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return mDatabase.getThemeDbUtilsCount();
+            }
+        }, callback);
+    }
+
+    public Future<Boolean> hasTheme(final String name, Callback<Boolean> callback) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return mDatabase.hasThemeDbUtils(name);
+            }
+        }, callback);
+    }
+
+    public Future<ThemeDbUtils> getTheme(final String name, Callback<ThemeDbUtils> callback) {
+        return submit(new Callable<ThemeDbUtils>() {
+            @Override
+            public ThemeDbUtils call() {
+                return mDatabase.getThemeDbUtils(name);
+            }
+        }, callback);
+    }
+
+    public Future<ThemeDbUtils> getTheme(final int id, Callback<ThemeDbUtils> callback) {
+        return submit(new Callable<ThemeDbUtils>() {
+            @Override
+            public ThemeDbUtils call() {
+                return mDatabase.getThemeDbUtils(id);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see ThemeDatabase#getThemeDbUtilsPage(int, int)
+     */
+    public Future<List<ThemeDbUtils>> getThemePage(final int beforeId, final int limit,
+            Callback<List<ThemeDbUtils>> callback) {
+        return submit(new Callable<List<ThemeDbUtils>>() {
+            @Override
+            public List<ThemeDbUtils> call() {
+                return mDatabase.getThemeDbUtilsPage(beforeId, limit);
+            }
+        }, callback);
+    }
+
+    public Future<Boolean> addTheme(final ThemeDbUtils theme, Callback<Boolean> callback) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return mDatabase.addThemeDbUtils(theme);
+            }
+        }, callback);
+    }
+
+    public Future<Boolean> renameTheme(final int id, final String newName,
+            Callback<Boolean> callback) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return mDatabase.renameThemeDbUtils(id, newName);
+            }
+        }, callback);
+    }
+
+    /**
+     * Delete a theme, and its wallpaper unless another theme uses it too.
+     */
+    public Future<Void> deleteTheme(final int id, Callback<Void> callback) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                ThemeDbUtils theme = mDatabase.getThemeDbUtils(id);
+                mDatabase.deleteThemeDbUtils(id);
+                if (theme != null) {
+                    mWallpaperStore.release(theme.getThemeWp());
+                }
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Import the theme library at uri.
+     *
+     * @param callback gets the number of themes added, or -1 if the library
+     *                 could not be read
+     * @see ThemeDatabase#importThemes
+     */
+    public Future<Integer> importThemes(final ContentResolver resolver, final Uri uri,
+            ThemeDatabase.ProgressListener listener, Callback<Integer> callback) {
+        final ThemeDatabase.ProgressListener progress = postProgress(listener);
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                try (InputStream in = resolver.openInputStream(uri)) {
+                    return mDatabase.importThemes(in, progress);
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not import themes from " + uri, e);
+                    return -1;
+                }
+            }
+        }, callback);
+    }
+
+    /**
+     * Export every saved theme to uri.
+     *
+     * @param callback gets the number of themes written, or -1 on failure
+     * @see ThemeDatabase#exportThemes
+     */
+    public Future<Integer> exportThemes(final ContentResolver resolver, final Uri uri,
+            ThemeDatabase.ProgressListener listener, Callback<Integer> callback) {
+        final ThemeDatabase.ProgressListener progress = postProgress(listener);
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                try (OutputStream out = resolver.openOutputStream(uri)) {
+                    return mDatabase.exportThemes(out, progress);
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not export themes to " + uri, e);
+                    return -1;
+                }
+            }
+        }, callback);
+    }
+
+    private ThemeDatabase.ProgressListener postProgress(
+            final ThemeDatabase.ProgressListener listener) {
+        if (listener == null) {
+            return null;
+        }
+        return new ThemeDatabase.ProgressListener() {
+            @Override
+            public void onProgress(final int rows, final float rowsPerSecond) {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onProgress(rows, rowsPerSecond);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * @see ThemeDatabase#registerObserver(ThemeObserver)
+     */
+    public void registerObserver(ThemeObserver observer) {
+        mDatabase.registerObserver(observer);
+    }
+
+    public void unregisterObserver(ThemeObserver observer) {
+        mDatabase.unregisterObserver(observer);
+    }
+
+    /**
+     * Run other disk work, such as wallpaper files of a theme, in order
+     * with the database calls.
+     */
+    public <T> Future<T> submit(Callable<T> work, Callback<T> callback) {
+        Request<T> request = new Request<>(work, callback);
+        mExecutor.execute(request);
+        return request;
+    }
+
+    private class Request<T> extends FutureTask<T> {
+
+        // Cleared by cancel(), even once the result is already on its way
+        private volatile Callback<T> mCallback;
+
+        Request(Callable<T> work, Callback<T> callback) {
+            super(work);
+            mCallback = callback;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            mCallback = null;
+            return super.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled() || mCallback == null) {
+                return;
+            }
+            T result = null;
+            Throwable error = null;
+            try {
+                result = get();
+            } catch (ExecutionException e) {
+                error = e.getCause();
+                Log.e(TAG, "Request failed", error);
+            } catch (InterruptedException e) {
+                // Can't happen, done() runs once the result is set
+                error = e;
+            }
+            final T finalResult = result;
+            final Throwable finalError = error;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Callback<T> callback = mCallback;
+                    if (callback == null) {
+                        return;
+                    }
+                    if (finalError != null) {
+                        callback.onError(finalError);
+                    } else {
+                        callback.onResult(finalResult);
+                    }
+                }
+            });
+        }
+    }
+}
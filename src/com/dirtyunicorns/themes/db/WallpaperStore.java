@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2020 The Dirty Unicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dirtyunicorns.themes.db;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Backup wallpapers, stored once per content under the SHA-256 of their
+ * bytes. The saved themes are the references: a blob lives as long as a
+ * theme's themeWp points at it. A blob handed out by {@link #put} is
+ * pinned until {@link #unpin} so it can't be collected before the theme
+ * row referencing it is inserted.
+ *
+ * Blobs are streamed into a temporary file, synced and then renamed to
+ * their hash, so a blob is either complete or absent. Temporary files
+ * left by a killed process are unreferenced and go with the next
+ * {@link #collectGarbage()}.
+ *
+ * Each wallpaper may have a small thumbnail for the restore carousel,
+ * named after it and deleted with it.
+ */
+public class WallpaperStore {
+
+    private static final String TAG = "WallpaperStore";
+
+    private static final String STORE_DIR = "wallpapers";
+    private static final String THUMBNAIL_DIR = "wallpaper-thumbnails";
+    private static final String TEMP_PREFIX = ".tmp-";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Where backups were written before this store, one file per backup
+    private static final String LEGACY_DIR_SUFFIX = "WallpaperBackup";
+
+    private static WallpaperStore sInstance;
+
+    private final File mStoreDir;
+    private final File mThumbnailDir;
+    private final File mLegacyDir;
+    private final ThemeDatabase mDatabase;
+    private final Set<String> mPinned = new HashSet<>();
+
+    public interface Encoder {
+        void encode(OutputStream out) throws IOException;
+    }
+
+    public static synchronized WallpaperStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WallpaperStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WallpaperStore(Context context) {
+        mStoreDir = new File(context.getFilesDir(), STORE_DIR);
+        mThumbnailDir = new File(context.getFilesDir(), THUMBNAIL_DIR);
+        mLegacyDir = new File(context.getFilesDir() + LEGACY_DIR_SUFFIX);
+        mDatabase = ThemeDatabase.getInstance(context);
+    }
+
+    /**
+     * Store a wallpaper written by encoder, or find the identical one
+     * already stored.
+     *
+     * @return the pinned blob
+     */
+    public synchronized File put(Encoder encoder) throws IOException {
+        MessageDigest digest = newDigest();
+        File temp = writeTempFile(mStoreDir, encoder, digest);
+        return commit(temp, digest.digest());
+    }
+
+    /**
+     * @return where the thumbnail of the wallpaper at path is, or would be
+     */
+    public File getThumbnail(String path) {
+        return new File(mThumbnailDir, new File(path).getName());
+    }
+
+    /**
+     * Write or replace the thumbnail of the wallpaper at path.
+     */
+    public synchronized File putThumbnail(String path, Encoder encoder) throws IOException {
+        File temp = writeTempFile(mThumbnailDir, encoder, null);
+        File thumbnail = getThumbnail(path);
+        if (!temp.renameTo(thumbnail)) {
+            temp.delete();
+            throw new IOException("Could not rename " + temp + " to " + thumbnail);
+        }
+        return thumbnail;
+    }
+
+    // Encode into a new temporary file of dir and sync it, hashing the
+    // bytes into digest unless null
+    private File writeTempFile(File dir, Encoder encoder, MessageDigest digest)
+            throws IOException {
+        File temp = createTempFile(dir);
+        FileOutputStream fos = new FileOutputStream(temp);
+        try {
+            OutputStream out = new BufferedOutputStream(fos, BUFFER_SIZE);
+            if (digest != null) {
+                out = new DigestOutputStream(out, digest);
+            }
+            encoder.encode(out);
+            out.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        } finally {
+            fos.close();
+        }
+        return temp;
+    }
+
+    /**
+     * Store a copy of the file open at source, or find the identical one
+     * already stored. The kernel copies the bytes, and the hash is taken
+     * from a read-only mapping of the copy, so the wallpaper never passes
+     * through a buffer of this process.
+     *
+     * @return the pinned blob
+     */
+    public synchronized File putFile(FileDescriptor source) throws IOException {
+        File temp = createTempFile(mStoreDir);
+        MessageDigest digest = newDigest();
+        // Not closed, that would close source
+        FileChannel in = new FileInputStream(source).getChannel();
+        RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+        try {
+            FileChannel out = raf.getChannel();
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            out.force(true);
+            digest.update(out.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        } finally {
+            raf.close();
+        }
+        return commit(temp, digest.digest());
+    }
+
+    private static File createTempFile(File dir) throws IOException {
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        return File.createTempFile(TEMP_PREFIX, null, dir);
+    }
+
+    // Move a complete, synced temporary file to its hash and pin it
+    private File commit(File temp, byte[] hash) throws IOException {
+        File blob = new File(mStoreDir, toHex(hash));
+        mPinned.add(blob.getPath());
+        if (blob.exists()) {
+            temp.delete();
+        } else if (!temp.renameTo(blob)) {
+            mPinned.remove(blob.getPath());
+            temp.delete();
+            throw new IOException("Could not rename " + temp + " to " + blob);
+        }
+        return blob;
+    }
+
+    public synchronized void unpin(String path) {
+        mPinned.remove(path);
+    }
+
+    /**
+     * Delete the wallpaper at path if no saved theme uses it any more. Call
+     * after deleting a theme row.
+     */
+    public synchronized void release(String path) {
+        if (path == null || mPinned.contains(path) || !isOwned(new File(path))) {
+            return;
+        }
+        if (mDatabase.getWallpaperRefCount(path) == 0) {
+            new File(path).delete();
+            getThumbnail(path).delete();
+        }
+    }
+
+    /**
+     * Delete every stored wallpaper no saved theme uses, e.g. left behind
+     * by a backup that died before inserting its row.
+     */
+    public synchronized void collectGarbage() {
+        Set<String> referenced = mDatabase.getWallpaperPaths();
+        int deleted = 0;
+        for (File dir : new File[] {mStoreDir, mLegacyDir}) {
+            File[] files = dir.listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                String path = file.getPath();
+                if (!referenced.contains(path) && !mPinned.contains(path) && file.delete()) {
+                    deleted++;
+                }
+            }
+        }
+        Set<String> thumbnails = new HashSet<>();
+        for (String path : referenced) {
+            thumbnails.add(getThumbnail(path).getName());
+        }
+        for (String path : mPinned) {
+            thumbnails.add(getThumbnail(path).getName());
+        }
+        File[] files = mThumbnailDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!thumbnails.contains(file.getName()) && file.delete()) {
+                    deleted++;
+                }
+            }
+        }
+        if (deleted > 0) {
+            Log.i(TAG, "Deleted " + deleted + " unused wallpapers and thumbnails");
+        }
+    }
+
+    /**
+     * @return every stored wallpaper, old per-backup files included
+     */
+    public synchronized List<File> getBlobs() {
+        List<File> blobs = new ArrayList<>();
+        for (File dir : new File[] {mStoreDir, mLegacyDir}) {
+            File[] files = dir.listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                if (!file.getName().startsWith(TEMP_PREFIX)) {
+                    blobs.add(file);
+                }
+            }
+        }
+        return blobs;
+    }
+
+    private boolean isOwned(File file) {
+        File dir = file.getParentFile();
+        return mStoreDir.equals(dir) || mLegacyDir.equals(dir);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android release ships SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2020 The Dirty Unicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dirtyunicorns.themes.receivers;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.dirtyunicorns.themes.utils.WallpaperCodecBenchmark;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Debuggable builds only: runs {@link WallpaperCodecBenchmark} on a thread
+ * of its own, so theme library calls never wait behind it, and returns the
+ * report as the broadcast result, which am prints, and to the log. goAsync()
+ * does not extend the receiver timeout, so the benchmark stops at
+ * TIME_BUDGET_MS, under the 10s of a foreground broadcast. Held by the DUMP
+ * permission, so only the shell can send it:
+ * {@code adb shell am broadcast -a com.dirtyunicorns.themes.action.BENCHMARK_WALLPAPER_CODECS
+ * -n com.dirtyunicorns.themes/.receivers.WallpaperCodecBenchmarkReceiver}
+ */
+public class WallpaperCodecBenchmarkReceiver extends BroadcastReceiver {
+
+    private static final String TAG = "WallpaperCodecBenchmark";
+    private static final long TIME_BUDGET_MS = 7000;
+
+    public static final String ACTION_BENCHMARK_WALLPAPER_CODECS =
+            "com.dirtyunicorns.themes.action.BENCHMARK_WALLPAPER_CODECS";
+
+    @Override
+    public void onReceive(final Context context, Intent intent) {
+        if (!Build.IS_DEBUGGABLE
+                || !ACTION_BENCHMARK_WALLPAPER_CODECS.equals(intent.getAction())) {
+            return;
+        }
+        final PendingResult pendingResult = goAsync();
+        final long deadline = SystemClock.elapsedRealtime() + TIME_BUDGET_MS;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                StringWriter report = new StringWriter();
+                PrintWriter writer = new PrintWriter(report);
+                try {
+                    WallpaperCodecBenchmark.run(context, deadline, writer);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Wallpaper codec benchmark failed", e);
+                    writer.println("Wallpaper codec benchmark failed: " + e);
+                } finally {
+                    writer.flush();
+                    Log.i(TAG, report.toString());
+                    pendingResult.setResultData(report.toString());
+                    pendingResult.finish();
+                }
+            }
+        }, TAG).start();
+    }
+}
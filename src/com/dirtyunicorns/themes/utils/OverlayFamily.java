@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2020 The Dirty Unicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dirtyunicorns.themes.utils;
+
+import static com.dirtyunicorns.themes.Themes.PREF_ADAPTIVE_ICON_SHAPE;
+import static com.dirtyunicorns.themes.Themes.PREF_FONT_PICKER;
+import static com.dirtyunicorns.themes.Themes.PREF_QS_HEADER_STYLE;
+import static com.dirtyunicorns.themes.Themes.PREF_STATUSBAR_ICONS;
+import static com.dirtyunicorns.themes.Themes.PREF_SWITCH_STYLE;
+import static com.dirtyunicorns.themes.Themes.PREF_THEME_ACCENT_COLOR;
+import static com.dirtyunicorns.themes.Themes.PREF_THEME_ACCENT_PICKER;
+import static com.dirtyunicorns.themes.Themes.PREF_THEME_NAVBAR_PICKER;
+import static com.dirtyunicorns.themes.Themes.PREF_THEME_NAVBAR_STYLE;
+
+import com.android.internal.util.du.ThemesUtils;
+
+import com.dirtyunicorns.themes.R;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Groups of mutually exclusive overlays backed by one preference.
+ *
+ * Picker families (accent, navbar) store the overlay package itself, or
+ * "default", and take their summary from a name array. List families
+ * store "1" for stock and "n" for the overlay at n - 2, and use the
+ * ListPreference entry as summary.
+ */
+public enum OverlayFamily {
+
+    ACCENT(PREF_THEME_ACCENT_COLOR, PREF_THEME_ACCENT_PICKER,
+            ThemesUtils.ACCENTS, R.array.accent_name),
+    NAVBAR(PREF_THEME_NAVBAR_STYLE, PREF_THEME_NAVBAR_PICKER,
+            ThemesUtils.NAVBAR_STYLES, R.array.navbar_name),
+    FONT(PREF_FONT_PICKER, ThemesUtils.FONTS),
+    ADAPTIVE_ICON_SHAPE(PREF_ADAPTIVE_ICON_SHAPE, ThemesUtils.ADAPTIVE_ICON_SHAPE),
+    STATUSBAR_ICONS(PREF_STATUSBAR_ICONS, ThemesUtils.STATUSBAR_ICONS),
+    QS_HEADER_STYLE(PREF_QS_HEADER_STYLE, ThemesUtils.QS_HEADER_THEMES),
+    SWITCH_STYLE(PREF_SWITCH_STYLE, ThemesUtils.SWITCH_STYLE);
+
+    private static final Map<String, OverlayFamily> sFamilyByKey = new HashMap<>();
+    private static final Map<String, OverlayFamily> sFamilyByPackage = new HashMap<>();
+    private static final Map<String, Integer> sPositionByPackage = new HashMap<>();
+
+    static {
+        for (OverlayFamily family : values()) {
+            sFamilyByKey.put(family.mKey, family);
+            for (int i = 0; i < family.mPackages.length; i++) {
+                sFamilyByPackage.put(family.mPackages[i], family);
+                sPositionByPackage.put(family.mPackages[i], i);
+            }
+        }
+    }
+
+    private final String mKey;
+    private final String mPreferenceKey;
+    private final String[] mPackages;
+    private final int mSummaries;
+
+    OverlayFamily(String key, String[] packages) {
+        this(key, key, packages, 0);
+    }
+
+    OverlayFamily(String key, String preferenceKey, String[] packages, int summaries) {
+        mKey = key;
+        mPreferenceKey = preferenceKey;
+        mPackages = packages;
+        mSummaries = summaries;
+    }
+
+    public static OverlayFamily forKey(String key) {
+        return sFamilyByKey.get(key);
+    }
+
+    public static OverlayFamily forPackage(String packageName) {
+        return sFamilyByPackage.get(packageName);
+    }
+
+    /**
+     * @return the slot of {@code packageName} in its family, or -1
+     */
+    public static int getPosition(String packageName) {
+        Integer position = sPositionByPackage.get(packageName);
+        return position != null ? position : -1;
+    }
+
+    /** Key of the shared preference holding the selection. */
+    public String getKey() {
+        return mKey;
+    }
+
+    /** Key of the preference showing the selection on the main screen. */
+    public String getPreferenceKey() {
+        return mPreferenceKey;
+    }
+
+    public String[] getPackages() {
+        return mPackages;
+    }
+
+    /**
+     * @return the name array resource, or 0 for list families
+     */
+    public int getSummaries() {
+        return mSummaries;
+    }
+
+    public boolean isPicker() {
+        return mSummaries != 0;
+    }
+
+    public String getDefaultValue() {
+        return isPicker() ? "default" : "1";
+    }
+
+    /**
+     * @return whether {@code value} is the default value or selects an
+     *         overlay of this family
+     */
+    public boolean isValidValue(String value) {
+        if (value == null) {
+            return false;
+        }
+        if (isPicker()) {
+            return getDefaultValue().equals(value) || this == forPackage(value);
+        }
+        try {
+            int position = Integer.parseInt(value);
+            return position >= 1 && position <= mPackages.length + 1;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the overlay a preference value selects, or null for stock
+     */
+    public String getTarget(String value) {
+        if (isPicker()) {
+            return getDefaultValue().equals(value) ? null : value;
+        }
+        int position = Integer.parseInt(value);
+        return position > 1 ? mPackages[position - 2] : null;
+    }
+
+    /**
+     * @return the preference value selecting the overlay at {@code position},
+     *         or the default value for -1
+     */
+    public String getValue(int position) {
+        if (position == -1) {
+            return getDefaultValue();
+        }
+        return isPicker() ? mPackages[position] : String.valueOf(position + 2);
+    }
+}
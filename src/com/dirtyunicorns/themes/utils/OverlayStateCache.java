@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2020 The Dirty Unicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dirtyunicorns.themes.utils;
+
+import static android.os.UserHandle.USER_SYSTEM;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.om.IOverlayManager;
+import android.content.om.OverlayInfo;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.util.Log;
+
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory copy of which overlays are enabled for the system user.
+ * The whole set is loaded with a single getAllOverlays() call and
+ * thrown away whenever the overlay manager reports a change, so
+ * lookups between two changes never leave the process. The enabled
+ * slot of every {@link OverlayFamily} is indexed as the set is built.
+ */
+public class OverlayStateCache {
+
+    private static final String TAG = "OverlayStateCache";
+
+    private static OverlayStateCache sInstance;
+
+    private final IOverlayManager mOverlayManager;
+    private final Set<String> mEnabledOverlays = new HashSet<>();
+    private final Map<OverlayFamily, Integer> mEnabledPositions = new EnumMap<>(OverlayFamily.class);
+    private boolean mLoaded;
+    private long mHits;
+    private long mMisses;
+
+    private final BroadcastReceiver mOverlayChangedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            invalidate();
+        }
+    };
+
+    public static synchronized OverlayStateCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new OverlayStateCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private OverlayStateCache(Context context) {
+        mOverlayManager = IOverlayManager.Stub.asInterface(
+                ServiceManager.getService(Context.OVERLAY_SERVICE));
+        IntentFilter filter = new IntentFilter(Intent.ACTION_OVERLAY_CHANGED);
+        filter.addDataScheme("package");
+        context.registerReceiver(mOverlayChangedReceiver, filter);
+    }
+
+    /**
+     * Load the state now if it is not already. Blocks on the overlay
+     * manager, call it off the main thread so later lookups there are
+     * served from memory.
+     */
+    public synchronized void load() {
+        ensureLoaded();
+    }
+
+    public synchronized boolean isEnabled(String packageName) {
+        ensureLoaded();
+        return mEnabledOverlays.contains(packageName);
+    }
+
+    /**
+     * @return the enabled overlay of {@code family}, or null if none is.
+     */
+    public synchronized String getEnabledOverlay(OverlayFamily family) {
+        int position = getPosition(family);
+        return position != -1 ? family.getPackages()[position] : null;
+    }
+
+    /**
+     * @return the slot of the enabled overlay of {@code family}, or -1.
+     */
+    public synchronized int getPosition(OverlayFamily family) {
+        ensureLoaded();
+        Integer position = mEnabledPositions.get(family);
+        return position != null ? position : -1;
+    }
+
+    /**
+     * Record a change this app made itself so it is visible before the
+     * overlay manager broadcast arrives.
+     */
+    public synchronized void setEnabled(String packageName, boolean enabled) {
+        if (!mLoaded) {
+            return;
+        }
+        if (enabled) {
+            mEnabledOverlays.add(packageName);
+        } else {
+            mEnabledOverlays.remove(packageName);
+        }
+        OverlayFamily family = OverlayFamily.forPackage(packageName);
+        if (family != null) {
+            updatePosition(family);
+        }
+    }
+
+    public synchronized void invalidate() {
+        mLoaded = false;
+    }
+
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    // Last enabled slot wins, should a family ever have two overlays enabled
+    private void updatePosition(OverlayFamily family) {
+        String[] packages = family.getPackages();
+        mEnabledPositions.remove(family);
+        for (int i = 0; i < packages.length; i++) {
+            if (mEnabledOverlays.contains(packages[i])) {
+                mEnabledPositions.put(family, i);
+            }
+        }
+    }
+
+    // A failed load leaves the cache invalid and the previous state in
+    // place, so the next lookup asks the overlay manager again
+    private void ensureLoaded() {
+        if (mLoaded) {
+            mHits++;
+            return;
+        }
+        mMisses++;
+        Map<String, List<OverlayInfo>> overlays;
+        try {
+            overlays = mOverlayManager.getAllOverlays(USER_SYSTEM);
+        } catch (RemoteException e) {
+            Log.w(TAG, "Failed to load overlay state", e);
+            return;
+        }
+        mEnabledOverlays.clear();
+        mEnabledPositions.clear();
+        for (List<OverlayInfo> infos : overlays.values()) {
+            for (OverlayInfo info : infos) {
+                if (info.isEnabled()) {
+                    mEnabledOverlays.add(info.packageName);
+                    OverlayFamily family = OverlayFamily.forPackage(info.packageName);
+                    if (family != null) {
+                        int position = OverlayFamily.getPosition(info.packageName);
+                        Integer current = mEnabledPositions.get(family);
+                        if (current == null || current < position) {
+                            mEnabledPositions.put(family, position);
+                        }
+                    }
+                }
+            }
+        }
+        mLoaded = true;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2020 The Dirty Unicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dirtyunicorns.themes.utils;
+
+import static android.os.UserHandle.USER_SYSTEM;
+
+import android.app.UiModeManager;
+import android.content.Context;
+import android.content.om.IOverlayManager;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Collects the overlay changes of a single user action and applies them
+ * in one go. Changes are recorded as desired state: an
+ * {@link OverlayFamily} maps to the overlay that should end up enabled
+ * in it, and later requests for the same family or package replace
+ * earlier ones. Nothing touches the overlay manager until
+ * {@link #commit()}, which resolves families against the
+ * {@link OverlayStateCache}. Every commit is reported to
+ * {@link ThemeApplyMetrics}.
+ */
+public class OverlayTransaction {
+
+    private static final String TAG = "OverlayTransaction";
+
+    private final IOverlayManager mOverlayManager;
+    private final OverlayStateCache mOverlayStateCache;
+    private final UiModeManager mUiModeManager;
+    private final Map<OverlayFamily, String> mFamilies = new LinkedHashMap<>();
+    private final Map<String, Boolean> mOverlays = new LinkedHashMap<>();
+    // Metrics label -> time of the first request, to measure apply latency
+    private final Map<String, Long> mRequestTimes = new HashMap<>();
+    private String mThemeSwitch;
+
+    public OverlayTransaction(Context context, IOverlayManager overlayManager) {
+        mOverlayManager = overlayManager;
+        mOverlayStateCache = OverlayStateCache.getInstance(context);
+        mUiModeManager = context.getSystemService(UiModeManager.class);
+    }
+
+    /**
+     * Leave only {@code target} enabled in {@code family}. A null target
+     * disables whatever overlay of the family is currently enabled.
+     */
+    public OverlayTransaction setExclusive(OverlayFamily family, String target) {
+        mFamilies.put(family, target);
+        markRequested(family.name());
+        return this;
+    }
+
+    public OverlayTransaction setEnabled(String packageName, boolean enabled) {
+        mOverlays.put(packageName, enabled);
+        markRequested(getLabel(packageName));
+        return this;
+    }
+
+    /**
+     * Switch to the background theme of a theme_switch preference value.
+     * The changes are planned by {@link ThemeSwitchPlan} at commit time.
+     */
+    public OverlayTransaction setThemeSwitch(String themeSwitch) {
+        mThemeSwitch = themeSwitch;
+        markRequested(ThemeApplyMetrics.THEME_SWITCH);
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return mFamilies.isEmpty() && mOverlays.isEmpty() && mThemeSwitch == null;
+    }
+
+    /**
+     * Resolve the recorded state against the overlay manager and apply it.
+     * Requests that already match the current state are dropped without
+     * a call, so re-selecting the active overlay restarts nothing.
+     * Disables are sent before enables so two overlays of one family are
+     * never enabled at the same time.
+     *
+     * @return the number of overlay manager calls made
+     */
+    public int commit() {
+        Map<String, Boolean> changes = new LinkedHashMap<>();
+        Map<String, String> labels = new HashMap<>();
+        Map<String, Long> returnTimes = new HashMap<>();
+        ThemeApplyMetrics metrics = ThemeApplyMetrics.getInstance();
+        if (mThemeSwitch != null) {
+            ThemeSwitchPlan plan = ThemeSwitchPlan.create(mThemeSwitch,
+                    mOverlayStateCache, mUiModeManager.getNightMode());
+            if (plan.getNightMode() != ThemeSwitchPlan.NIGHT_MODE_UNCHANGED) {
+                mUiModeManager.setNightMode(plan.getNightMode());
+                returnTimes.put(ThemeApplyMetrics.THEME_SWITCH, SystemClock.elapsedRealtime());
+            }
+            if (plan.getNightMode() == ThemeSwitchPlan.NIGHT_MODE_UNCHANGED
+                    && plan.getOverlayChanges().isEmpty()) {
+                metrics.recordSkipped(ThemeApplyMetrics.THEME_SWITCH);
+            }
+            changes.putAll(plan.getOverlayChanges());
+            for (String packageName : plan.getOverlayChanges().keySet()) {
+                labels.put(packageName, ThemeApplyMetrics.THEME_SWITCH);
+            }
+            mThemeSwitch = null;
+        }
+        for (Map.Entry<OverlayFamily, String> family : mFamilies.entrySet()) {
+            String current = mOverlayStateCache.getEnabledOverlay(family.getKey());
+            if (Objects.equals(current, family.getValue())) {
+                metrics.recordSkipped(family.getKey().name());
+                continue;
+            }
+            if (current != null) {
+                changes.put(current, false);
+                labels.put(current, family.getKey().name());
+            }
+            if (family.getValue() != null) {
+                changes.put(family.getValue(), true);
+                labels.put(family.getValue(), family.getKey().name());
+            }
+        }
+        for (Map.Entry<String, Boolean> overlay : mOverlays.entrySet()) {
+            String label = getLabel(overlay.getKey());
+            if (mOverlayStateCache.isEnabled(overlay.getKey()) == overlay.getValue()) {
+                metrics.recordSkipped(label);
+                changes.remove(overlay.getKey());
+                continue;
+            }
+            changes.put(overlay.getKey(), overlay.getValue());
+            labels.put(overlay.getKey(), label);
+        }
+        mFamilies.clear();
+        mOverlays.clear();
+
+        int calls = 0;
+        for (Map.Entry<String, Boolean> change : changes.entrySet()) {
+            if (!change.getValue()) {
+                setOverlay(change.getKey(), false, labels.get(change.getKey()), returnTimes);
+                calls++;
+            }
+        }
+        for (Map.Entry<String, Boolean> change : changes.entrySet()) {
+            if (change.getValue()) {
+                setOverlay(change.getKey(), true, labels.get(change.getKey()), returnTimes);
+                calls++;
+            }
+        }
+
+        // Only requests that reached the system count towards latency
+        for (Map.Entry<String, Long> request : mRequestTimes.entrySet()) {
+            Long returned = returnTimes.get(request.getKey());
+            if (returned != null) {
+                metrics.recordLatency(request.getKey(), returned - request.getValue());
+            }
+        }
+        mRequestTimes.clear();
+        return calls;
+    }
+
+    private void setOverlay(String packageName, boolean state, String label,
+            Map<String, Long> returnTimes) {
+        boolean success = false;
+        try {
+            mOverlayManager.setEnabled(packageName, state, USER_SYSTEM);
+            mOverlayStateCache.setEnabled(packageName, state);
+            success = true;
+        } catch (RemoteException e) {
+            Log.w(TAG, "Failed to set " + packageName + " enabled=" + state, e);
+        }
+        returnTimes.put(label, SystemClock.elapsedRealtime());
+        ThemeApplyMetrics.getInstance().recordCall(label, success);
+    }
+
+    private void markRequested(String label) {
+        if (!mRequestTimes.containsKey(label)) {
+            mRequestTimes.put(label, SystemClock.elapsedRealtime());
+        }
+    }
+
+    private static String getLabel(String packageName) {
+        OverlayFamily family = OverlayFamily.forPackage(packageName);
+        return family != null ? family.name() : ThemeApplyMetrics.OVERLAY;
+    }
+}
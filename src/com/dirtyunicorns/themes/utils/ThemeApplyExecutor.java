@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2020 The Dirty Unicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dirtyunicorns.themes.utils;
+
+import android.content.Context;
+import android.content.om.IOverlayManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Single background thread that owns every overlay and night mode change
+ * of the app. Work runs in submission order, so a later theme change can
+ * never overtake an earlier one, and completion callbacks are delivered
+ * on the main thread.
+ */
+public class ThemeApplyExecutor {
+
+    private static final String TAG = "ThemeApplyExecutor";
+
+    private static ThemeApplyExecutor sInstance;
+
+    private final ExecutorService mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Main thread only
+    private OverlayTransaction mPendingTransaction;
+    private final Set<Runnable> mPendingCallbacks = new LinkedHashSet<>();
+
+    public static synchronized ThemeApplyExecutor getInstance() {
+        if (sInstance == null) {
+            sInstance = new ThemeApplyExecutor();
+        }
+        return sInstance;
+    }
+
+    private ThemeApplyExecutor() {
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "ThemeApply");
+            }
+        });
+    }
+
+    /**
+     * Run {@code work} on the apply thread and then {@code onComplete},
+     * if not null, on the main thread. A RuntimeException thrown by work
+     * is logged and onComplete still runs.
+     */
+    public void execute(final Runnable work, final Runnable onComplete) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    work.run();
+                } catch (RuntimeException e) {
+                    // One bad apply must not take the thread and the app down
+                    Log.e(TAG, "Theme apply work failed", e);
+                } finally {
+                    if (onComplete != null) {
+                        mMainHandler.post(onComplete);
+                    }
+                }
+            }
+        });
+    }
+
+    public void commit(final OverlayTransaction transaction, Runnable onComplete) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                transaction.commit();
+            }
+        }, onComplete);
+    }
+
+    /**
+     * Transaction shared by all callers during the current main looper pass.
+     * It is handed to the apply thread once the pass is over, so changes
+     * made together (a reset, a restored theme) are committed together.
+     * Must be called on the main thread.
+     *
+     * @param onComplete run on the main thread once the batch is applied,
+     *                   at most once per batch
+     */
+    public OverlayTransaction getPendingTransaction(Context context,
+            IOverlayManager overlayManager, Runnable onComplete) {
+        if (mPendingTransaction == null) {
+            mPendingTransaction = new OverlayTransaction(context, overlayManager);
+            mMainHandler.post(mCommitPendingTransaction);
+        }
+        if (onComplete != null) {
+            mPendingCallbacks.add(onComplete);
+        }
+        return mPendingTransaction;
+    }
+
+    private final Runnable mCommitPendingTransaction = new Runnable() {
+        @Override
+        public void run() {
+            OverlayTransaction transaction = mPendingTransaction;
+            final Runnable[] callbacks = mPendingCallbacks.toArray(
+                    new Runnable[mPendingCallbacks.size()]);
+            mPendingTransaction = null;
+            mPendingCallbacks.clear();
+            commit(transaction, new Runnable() {
+                @Override
+                public void run() {
+                    for (Runnable callback : callbacks) {
+                        callback.run();
+                    }
+                }
+            });
+        }
+    };
+}
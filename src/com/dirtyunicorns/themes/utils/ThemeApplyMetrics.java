@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2020 The Dirty Unicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dirtyunicorns.themes.utils;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Per overlay family counters for the apply path: latency from the
+ * preference change to the return of the last overlay manager call,
+ * number of calls, failed calls and requests skipped as no-ops. The
+ * stages of a theme backup are timed here as well.
+ * Latencies go into fixed buckets so the numbers stay comparable
+ * between builds. Printed by
+ * {@code adb shell dumpsys activity com.dirtyunicorns.themes}.
+ */
+public class ThemeApplyMetrics {
+
+    public static final String THEME_SWITCH = "theme_switch";
+    public static final String OVERLAY = "overlay";
+    public static final String BACKUP_CAPTURE = "backup_capture";
+    public static final String BACKUP_ENCODE = "backup_encode";
+    public static final String BACKUP_INSERT = "backup_insert";
+
+    // Upper bounds in milliseconds, the last bucket takes everything above
+    private static final long[] BUCKETS = { 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000 };
+
+    private static ThemeApplyMetrics sInstance;
+
+    private final Map<String, Family> mFamilies = new TreeMap<>();
+
+    private static class Family {
+        final long[] latencies = new long[BUCKETS.length + 1];
+        long applies;
+        long totalLatency;
+        long maxLatency;
+        long calls;
+        long failures;
+        long skipped;
+    }
+
+    public static synchronized ThemeApplyMetrics getInstance() {
+        if (sInstance == null) {
+            sInstance = new ThemeApplyMetrics();
+        }
+        return sInstance;
+    }
+
+    public synchronized void recordCall(String family, boolean success) {
+        Family stats = getFamily(family);
+        stats.calls++;
+        if (!success) {
+            stats.failures++;
+        }
+    }
+
+    /**
+     * Count a request that was dropped because its state already held.
+     */
+    public synchronized void recordSkipped(String family) {
+        getFamily(family).skipped++;
+    }
+
+    public synchronized void recordLatency(String family, long latency) {
+        Family stats = getFamily(family);
+        int bucket = 0;
+        while (bucket < BUCKETS.length && latency > BUCKETS[bucket]) {
+            bucket++;
+        }
+        stats.latencies[bucket]++;
+        stats.applies++;
+        stats.totalLatency += latency;
+        stats.maxLatency = Math.max(stats.maxLatency, latency);
+    }
+
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "Theme apply metrics:");
+        for (Map.Entry<String, Family> entry : mFamilies.entrySet()) {
+            Family stats = entry.getValue();
+            writer.println(prefix + "  " + entry.getKey() + ": applies=" + stats.applies
+                    + " calls=" + stats.calls + " failures=" + stats.failures
+                    + " skipped=" + stats.skipped
+                    + " avgMs=" + (stats.applies > 0 ? stats.totalLatency / stats.applies : 0)
+                    + " maxMs=" + stats.maxLatency);
+            StringBuilder histogram = new StringBuilder(prefix + "    latency:");
+            for (int i = 0; i < stats.latencies.length; i++) {
+                histogram.append(i < BUCKETS.length ? " <=" + BUCKETS[i] : " >" + BUCKETS[i - 1])
+                        .append("ms=").append(stats.latencies[i]);
+            }
+            writer.println(histogram);
+        }
+    }
+
+    private Family getFamily(String family) {
+        Family stats = mFamilies.get(family);
+        if (stats == null) {
+            stats = new Family();
+            mFamilies.put(family, stats);
+        }
+        return stats;
+    }
+}
@@ -16,32 +16,34 @@
 
 package com.dirtyunicorns.themes.utils;
 
+/**
+ * One saved theme as stored in the database. Colours are ARGB ints, font
+ * and status bar icon style are the 1-based preference indices.
+ */
 public class ThemeDbUtils {
 
-    private int mId;
-    private String mThemeName;
-    private String mThemeDayOrNight;
-    private String mThemeAccent;
-    private String mThemeNightColor;
-    private String mAccentPicker;
-    private String mThemeSwitch;
-    private String mAdaptativeIconShape;
-    private String mThemeFont;
-    private String mThemeIconShape;
-    private String mThemeSbIcons;
-    private String mThemeWp;
-    private String mThemeNavbarStyle;
-
-    public ThemeDbUtils() {
-        //
-    }
-
-    public ThemeDbUtils(int id, String themeName, String themeDayOrNight, String themeAccent, String themeNightColor,
-                String accentPicker, String themeSwitch, String adaptativeIconShape, String themeFont,
-                String themeIconShape, String themeSbIcons, String themeWp, String themeNavbarStyle) {
+    private final int mId;
+    private final String mThemeName;
+    private final boolean mNightMode;
+    private final int mThemeAccent;
+    private final int mThemeNightColor;
+    private final String mAccentPicker;
+    private final String mThemeSwitch;
+    private final String mAdaptativeIconShape;
+    private final int mThemeFont;
+    private final String mThemeIconShape;
+    private final int mThemeSbIcons;
+    private final String mThemeWp;
+    private final String mThemeNavbarStyle;
+    private final String mThemeWpCodec;
+
+    public ThemeDbUtils(int id, String themeName, boolean nightMode, int themeAccent, int themeNightColor,
+                String accentPicker, String themeSwitch, String adaptativeIconShape, int themeFont,
+                String themeIconShape, int themeSbIcons, String themeWp, String themeNavbarStyle,
+                String themeWpCodec) {
         mId = id;
         mThemeName = themeName;
-        mThemeDayOrNight = themeDayOrNight;
+        mNightMode = nightMode;
         mThemeAccent = themeAccent;
         mThemeNightColor = themeNightColor;
         mAccentPicker = accentPicker;
@@ -52,126 +54,84 @@ public class ThemeDbUtils {
         mThemeSbIcons = themeSbIcons;
         mThemeWp = themeWp;
         mThemeNavbarStyle = themeNavbarStyle;
+        mThemeWpCodec = themeWpCodec;
     }
 
-    public ThemeDbUtils(String themeName, String themeDayOrNight, String themeAccent, String themeNightColor,
-                String accentPicker, String themeSwitch, String adaptativeIconShape, String themeFont,
-                String themeIconShape, String themeSbIcons, String themeWp, String themeNavbarStyle) {
-        mThemeName = themeName;
-        mThemeDayOrNight = themeDayOrNight;
-        mThemeAccent = themeAccent;
-        mThemeNightColor = themeNightColor;
-        mAccentPicker = accentPicker;
-        mThemeSwitch = themeSwitch;
-        mAdaptativeIconShape = adaptativeIconShape;
-        mThemeFont = themeFont;
-        mThemeIconShape = themeIconShape;
-        mThemeSbIcons = themeSbIcons;
-        mThemeWp = themeWp;
-        mThemeNavbarStyle = themeNavbarStyle;
+    public ThemeDbUtils(String themeName, boolean nightMode, int themeAccent, int themeNightColor,
+                String accentPicker, String themeSwitch, String adaptativeIconShape, int themeFont,
+                String themeIconShape, int themeSbIcons, String themeWp, String themeNavbarStyle,
+                String themeWpCodec) {
+        this(0, themeName, nightMode, themeAccent, themeNightColor, accentPicker, themeSwitch,
+                adaptativeIconShape, themeFont, themeIconShape, themeSbIcons, themeWp,
+                themeNavbarStyle, themeWpCodec);
     }
 
-    public int getID() {
-        return mId;
+    /**
+     * @return a copy of this theme using the wallpaper file at themeWp,
+     *         written with the codec of id themeWpCodec
+     */
+    public ThemeDbUtils withThemeWp(String themeWp, String themeWpCodec) {
+        return new ThemeDbUtils(mId, mThemeName, mNightMode, mThemeAccent, mThemeNightColor,
+                mAccentPicker, mThemeSwitch, mAdaptativeIconShape, mThemeFont, mThemeIconShape,
+                mThemeSbIcons, themeWp, mThemeNavbarStyle, themeWpCodec);
     }
 
-    public void setID(int id) {
-        mId = id;
+    public int getID() {
+        return mId;
     }
 
     public String getThemeName() {
         return mThemeName;
     }
 
-    public void setThemeName(String themeName) {
-        mThemeName = themeName;
-    }
-
-    public String getThemeDayOrNight() {
-        return mThemeDayOrNight;
-    }
-
-    public void setThemeDayOrNight(String themeDayOrNight) {
-        mThemeDayOrNight = themeDayOrNight;
+    public boolean isNightMode() {
+        return mNightMode;
     }
 
-    public String getThemeAccent() {
+    public int getThemeAccent() {
         return mThemeAccent;
     }
 
-    public void setThemeAccent(String themeAccent) {
-        mThemeAccent = themeAccent;
-    }
-
-    public String getThemeNightColor() {
+    public int getThemeNightColor() {
         return mThemeNightColor;
     }
 
-    public void setThemeNightColor(String themeNightColor) {
-        mThemeNightColor = themeNightColor;
-    }
-
     public String getAccentPicker() {
         return mAccentPicker;
     }
 
-    public void setAccentPicker(String accentPicker) {
-        mAccentPicker = accentPicker;
-    }
-
     public String getThemeSwitch() {
         return mThemeSwitch;
     }
 
-    public void setThemeSwitch(String themeSwitch) {
-        mThemeSwitch = themeSwitch;
-    }
-
     public String getAdaptiveIconShape() {
         return mAdaptativeIconShape;
     }
 
-    public void setAdaptiveIconShape(String adaptativeIconShape) {
-        mAdaptativeIconShape = adaptativeIconShape;
-    }
-
-    public String getThemeFont() {
+    public int getThemeFont() {
         return mThemeFont;
     }
 
-    public void setThemeFont(String themeFont) {
-        mThemeFont = themeFont;
-    }
-
     public String getThemeIconShape() {
         return mThemeIconShape;
     }
 
-    public void setThemeIconShape(String themeIconShape) {
-        mThemeIconShape = themeIconShape;
-    }
-
-    public String getThemeSbIcons() {
+    public int getThemeSbIcons() {
         return mThemeSbIcons;
     }
 
-    public void setThemeSbIcons(String themeSbIcons) {
-        mThemeSbIcons = themeSbIcons;
-    }
-
     public String getThemeWp() {
         return mThemeWp;
     }
 
-    public void setThemeWp(String themeWp) {
-        mThemeWp = themeWp;
-    }
-
     public String getThemeNavbarStyle() {
         return mThemeNavbarStyle;
     }
 
-    public void setThemeNavbarStyle(String themeNavbarStyle) {
-        mThemeNavbarStyle = themeNavbarStyle;
+    /**
+     * @see WallpaperCodec#getId()
+     */
+    public String getThemeWpCodec() {
+        return mThemeWpCodec;
     }
 }
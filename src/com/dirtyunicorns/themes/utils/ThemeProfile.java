@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2020 The Dirty Unicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dirtyunicorns.themes.utils;
+
+import static com.dirtyunicorns.themes.Themes.PREF_THEME_SWITCH;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.om.IOverlayManager;
+import android.os.ServiceManager;
+
+import androidx.preference.PreferenceManager;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Applies the parts of a saved theme selected by a mask of the flags
+ * below: the overlay changes they need as one batch, then the
+ * preferences that record them, so the preference listener then finds
+ * nothing left to do.
+ */
+public class ThemeProfile {
+
+    public static final int THEME = 1 << 0;
+    public static final int ACCENT = 1 << 1;
+    public static final int FONT = 1 << 2;
+    public static final int ICON_SHAPE = 1 << 3;
+    public static final int SB_ICONS = 1 << 4;
+    public static final int NAVBAR = 1 << 5;
+
+    /**
+     * Commit the overlay changes of the selected parts, then write their
+     * preferences with a single edit. Blocks on the overlay manager, call
+     * it off the main thread.
+     */
+    public static void applyProfile(Context context, ThemeDbUtils theme, int mask) {
+        createTransaction(context, theme, mask).commit();
+        writePreferences(context, theme, mask);
+    }
+
+    private static OverlayTransaction createTransaction(Context context,
+            ThemeDbUtils theme, int mask) {
+        IOverlayManager overlayManager = IOverlayManager.Stub.asInterface(
+                ServiceManager.getService(Context.OVERLAY_SERVICE));
+        OverlayTransaction transaction = new OverlayTransaction(context, overlayManager);
+        if ((mask & THEME) != 0) {
+            transaction.setThemeSwitch(theme.getThemeSwitch());
+        }
+        for (Map.Entry<OverlayFamily, String> value : getValues(theme, mask).entrySet()) {
+            transaction.setExclusive(value.getKey(), value.getKey().getTarget(value.getValue()));
+        }
+        return transaction;
+    }
+
+    private static void writePreferences(Context context, ThemeDbUtils theme, int mask) {
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(context).edit();
+        if ((mask & THEME) != 0) {
+            editor.putString(PREF_THEME_SWITCH, theme.getThemeSwitch());
+        }
+        for (Map.Entry<OverlayFamily, String> value : getValues(theme, mask).entrySet()) {
+            editor.putString(value.getKey().getKey(), value.getValue());
+        }
+        editor.apply();
+    }
+
+    private static Map<OverlayFamily, String> getValues(ThemeDbUtils theme, int mask) {
+        Map<OverlayFamily, String> values = new EnumMap<>(OverlayFamily.class);
+        if ((mask & FONT) != 0) {
+            values.put(OverlayFamily.FONT, String.valueOf(theme.getThemeFont()));
+        }
+        if ((mask & ICON_SHAPE) != 0) {
+            values.put(OverlayFamily.ADAPTIVE_ICON_SHAPE, theme.getAdaptiveIconShape());
+        }
+        if ((mask & SB_ICONS) != 0) {
+            values.put(OverlayFamily.STATUSBAR_ICONS, String.valueOf(theme.getThemeSbIcons()));
+        }
+        if ((mask & ACCENT) != 0) {
+            values.put(OverlayFamily.ACCENT, theme.getAccentPicker());
+        }
+        if ((mask & NAVBAR) != 0) {
+            values.put(OverlayFamily.NAVBAR, theme.getThemeNavbarStyle());
+        }
+        return values;
+    }
+}
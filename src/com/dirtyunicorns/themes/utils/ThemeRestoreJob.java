@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2020 The Dirty Unicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dirtyunicorns.themes.utils;
+
+import android.app.WallpaperManager;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+
+/**
+ * Applies a saved theme in two stages on the {@link ThemeApplyExecutor}
+ * thread: the overlays together with their preferences, see
+ * {@link ThemeProfile#applyProfile}, then the wallpaper. The wallpaper
+ * file is streamed to the wallpaper service instead of being decoded
+ * here. Only one job exists at a time: starting the same restore of
+ * the same theme row again returns the running job, starting another
+ * one cancels it. A cancelled job stops before its next stage and reports nothing
+ * more. Listener calls happen on the main thread, and start() must be
+ * called there too.
+ */
+public class ThemeRestoreJob {
+
+    public static final int STAGE_OVERLAYS = 0;
+    public static final int STAGE_WALLPAPER = 1;
+
+    public interface Listener {
+        void onProgress(int stage);
+
+        /**
+         * @param success false if the wallpaper could not be set
+         */
+        void onComplete(boolean success);
+    }
+
+    // Main thread only
+    private static ThemeRestoreJob sCurrentJob;
+
+    private final Context mContext;
+    private final ThemeDbUtils mTheme;
+    private final int mMask;
+    private final String mWallpaperPath;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private Listener mListener;
+    private boolean mSuccess = true;
+    private volatile boolean mCancelled;
+
+    /**
+     * @param wallpaperPath backup wallpaper to set, or null to keep the current one
+     */
+    public static ThemeRestoreJob start(Context context, ThemeDbUtils theme, int mask,
+            String wallpaperPath, Listener listener) {
+        if (sCurrentJob != null) {
+            if (sCurrentJob.isSameRequest(theme, mask, wallpaperPath)) {
+                sCurrentJob.mListener = listener;
+                return sCurrentJob;
+            }
+            sCurrentJob.cancel();
+        }
+        sCurrentJob = new ThemeRestoreJob(context.getApplicationContext(), theme, mask,
+                wallpaperPath, listener);
+        sCurrentJob.schedule();
+        return sCurrentJob;
+    }
+
+    private ThemeRestoreJob(Context context, ThemeDbUtils theme, int mask,
+            String wallpaperPath, Listener listener) {
+        mContext = context;
+        mTheme = theme;
+        mMask = mask;
+        mWallpaperPath = wallpaperPath;
+        mListener = listener;
+    }
+
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Replace the listener, or drop it with null when its owner goes away.
+     * The job itself keeps running.
+     */
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    private boolean isSameRequest(ThemeDbUtils theme, int mask, String wallpaperPath) {
+        return !mCancelled && mMask == mask
+                && mTheme.getID() == theme.getID()
+                && Objects.equals(mWallpaperPath, wallpaperPath);
+    }
+
+    private void schedule() {
+        ThemeApplyExecutor.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mCancelled) {
+                    return;
+                }
+                reportProgress(STAGE_OVERLAYS);
+                if (mMask != 0) {
+                    ThemeProfile.applyProfile(mContext, mTheme, mMask);
+                }
+                if (mCancelled || mWallpaperPath == null) {
+                    return;
+                }
+                reportProgress(STAGE_WALLPAPER);
+                setWallpaper();
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                if (sCurrentJob == ThemeRestoreJob.this) {
+                    sCurrentJob = null;
+                }
+                if (!mCancelled && mListener != null) {
+                    mListener.onComplete(mSuccess);
+                }
+            }
+        });
+    }
+
+    private void setWallpaper() {
+        InputStream wallpaper = null;
+        try {
+            wallpaper = new FileInputStream(mWallpaperPath);
+            WallpaperManager.getInstance(mContext).setStream(wallpaper, null,
+                    false, WallpaperManager.FLAG_SYSTEM);
+        } catch (IOException e) {
+            mSuccess = false;
+            e.printStackTrace();
+        } finally {
+            if (wallpaper != null) {
+                try {
+                    wallpaper.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void reportProgress(final int stage) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mCancelled && mListener != null) {
+                    mListener.onProgress(stage);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2020 The Dirty Unicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dirtyunicorns.themes.utils;
+
+import android.app.UiModeManager;
+
+import com.android.internal.util.du.ThemesUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The difference between the current system state and a theme_switch
+ * value ("1" light, "2" dark, "3"-"6" the dark background overlays).
+ * Only overlays whose state actually differs are part of the plan, and
+ * the night mode is only changed when it is not already the target one.
+ */
+public class ThemeSwitchPlan {
+
+    public static final int NIGHT_MODE_UNCHANGED = -1;
+
+    // Background overlay sets, indexed by theme_switch value - 3
+    private static final String[][] BACKGROUNDS = {
+        ThemesUtils.PITCH_BLACK,
+        ThemesUtils.SOLARIZED_DARK,
+        ThemesUtils.CHOCO_X,
+        ThemesUtils.BAKED_GREEN,
+    };
+
+    private final Map<String, Boolean> mOverlayChanges = new LinkedHashMap<>();
+    private int mNightMode = NIGHT_MODE_UNCHANGED;
+
+    private ThemeSwitchPlan() {
+    }
+
+    /**
+     * @return whether {@code themeSwitch} is a theme_switch value, "1" for
+     *         light up to one per background overlay set
+     */
+    public static boolean isValid(String themeSwitch) {
+        if (themeSwitch == null) {
+            return false;
+        }
+        try {
+            int value = Integer.parseInt(themeSwitch);
+            return value >= 1 && value <= BACKGROUNDS.length + 2;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    public static ThemeSwitchPlan create(String themeSwitch, OverlayStateCache snapshot,
+            int currentNightMode) {
+        ThemeSwitchPlan plan = new ThemeSwitchPlan();
+        int value = Integer.parseInt(themeSwitch);
+        int nightMode = value > 1 ? UiModeManager.MODE_NIGHT_YES : UiModeManager.MODE_NIGHT_NO;
+        if (nightMode != currentNightMode) {
+            plan.mNightMode = nightMode;
+        }
+        for (int i = 0; i < BACKGROUNDS.length; i++) {
+            boolean state = i == value - 3;
+            for (String overlay : BACKGROUNDS[i]) {
+                if (snapshot.isEnabled(overlay) != state) {
+                    plan.mOverlayChanges.put(overlay, state);
+                }
+            }
+        }
+        return plan;
+    }
+
+    public Map<String, Boolean> getOverlayChanges() {
+        return mOverlayChanges;
+    }
+
+    /**
+     * @return the night mode to set, or {@link #NIGHT_MODE_UNCHANGED}
+     */
+    public int getNightMode() {
+        return mNightMode;
+    }
+}
@@ -16,135 +16,79 @@
 
 package com.dirtyunicorns.themes.utils;
 
-public class ThemesListItem {
-
-    private String mThemeName;
-    private String mThemeDayOrNight;
-    private String mThemeAccent;
-    private String mThemeNightColor;
-    private String mAccentPicker;
-    private String mThemeSwitch;
-    private String mAdaptativeIconShape;
-    private String mThemeFont;
-    private String mThemeIconShape;
-    private String mThemeSbIcons;
-    private String mThemeWp;
-    private String mThemeNavbarStyle;
+import android.graphics.Path;
+import android.util.PathParser;
 
-    public ThemesListItem() {
-        //
-    }
+/**
+ * What the restore carousel shows of a saved theme, decoded once when the
+ * list is loaded so binding a page does no parsing.
+ */
+public class ThemesListItem {
 
-    public ThemesListItem(String themeName, String themeDayOrNight, String themeAccent, String themeNightColor,
-                String accentPicker, String themeSwitch, String adaptativeIconShape, String themeFont,
-                String themeIconShape, String themeSbIcons, String themeWp, String themeNavbarStyle) {
-        mThemeName = themeName;
-        mThemeDayOrNight = themeDayOrNight;
-        mThemeAccent = themeAccent;
-        mThemeNightColor = themeNightColor;
-        mAccentPicker = accentPicker;
-        mThemeSwitch = themeSwitch;
-        mAdaptativeIconShape = adaptativeIconShape;
-        mThemeFont = themeFont;
-        mThemeIconShape = themeIconShape;
-        mThemeSbIcons = themeSbIcons;
-        mThemeWp = themeWp;
-        mThemeNavbarStyle = themeNavbarStyle;
+    private final int mId;
+    private final String mThemeName;
+    private final boolean mNightMode;
+    private final int mThemeAccent;
+    private final int mThemeNightColor;
+    private final int mThemeFont;
+    private final Path mThemeIconShape;
+    private final int mThemeSbIcons;
+    private final String mThemeWp;
+    private final String mThemeNavbarStyle;
+
+    public ThemesListItem(ThemeDbUtils theme) {
+        mId = theme.getID();
+        mThemeName = theme.getThemeName();
+        mNightMode = theme.isNightMode();
+        mThemeAccent = theme.getThemeAccent();
+        mThemeNightColor = theme.getThemeNightColor();
+        mThemeFont = theme.getThemeFont();
+        mThemeIconShape = PathParser.createPathFromPathData(theme.getThemeIconShape());
+        mThemeSbIcons = theme.getThemeSbIcons();
+        mThemeWp = theme.getThemeWp();
+        mThemeNavbarStyle = theme.getThemeNavbarStyle();
+    }
+
+    public int getID() {
+        return mId;
     }
 
     public String getThemeName() {
         return mThemeName;
     }
 
-    public void setThemeName(String themeName) {
-        mThemeName = themeName;
-    }
-
-    public String getThemeDayOrNight() {
-        return mThemeDayOrNight;
-    }
-
-    public void setThemeDayOrNight(String themeDayOrNight) {
-        mThemeDayOrNight = themeDayOrNight;
+    public boolean isNightMode() {
+        return mNightMode;
     }
 
-    public String getThemeAccent() {
+    public int getThemeAccent() {
         return mThemeAccent;
     }
 
-    public void setThemeAccent(String themeAccent) {
-        mThemeAccent = themeAccent;
-    }
-
-    public String getThemeNightColor() {
+    public int getThemeNightColor() {
         return mThemeNightColor;
     }
 
-    public void setThemeNightColor(String themeNightColor) {
-        mThemeNightColor = themeNightColor;
-    }
-
-    public String getAccentPicker() {
-        return mAccentPicker;
-    }
-
-    public void setAccentPicker(String accentPicker) {
-        mAccentPicker = accentPicker;
-    }
-
-    public String getThemeSwitch() {
-        return mThemeSwitch;
-    }
-
-    public void setThemeSwitch(String themeSwitch) {
-        mThemeSwitch = themeSwitch;
-    }
-
-    public String getAdaptiveIconShape() {
-        return mAdaptativeIconShape;
-    }
-
-    public void setAdaptiveIconShape(String adaptativeIconShape) {
-        mAdaptativeIconShape = adaptativeIconShape;
-    }
-
-    public String getThemeFont() {
+    public int getThemeFont() {
         return mThemeFont;
     }
 
-    public void setThemeFont(String themeFont) {
-        mThemeFont = themeFont;
-    }
-
-    public String getThemeIconShape() {
+    /**
+     * @return the icon mask, shared: copy it before changing it
+     */
+    public Path getThemeIconShape() {
         return mThemeIconShape;
     }
 
-    public void setThemeIconShape(String themeIconShape) {
-        mThemeIconShape = themeIconShape;
-    }
-
-    public String getThemeSbIcons() {
+    public int getThemeSbIcons() {
         return mThemeSbIcons;
     }
 
-    public void setThemeSbIcons(String themeSbIcons) {
-        mThemeSbIcons = themeSbIcons;
-    }
-
     public String getThemeWp() {
         return mThemeWp;
     }
 
-    public void setThemeWp(String themeWp) {
-        mThemeWp = themeWp;
-    }
-
     public String getThemeNavbarStyle() {
         return mThemeNavbarStyle;
     }
-
-    public void setThemeNavbarStyle(String themeNavbarStyle) {
-        mThemeNavbarStyle = themeNavbarStyle;
-    }
 }
@@ -17,7 +17,6 @@
 package com.dirtyunicorns.themes.utils;
 
 import static android.content.Context.ALARM_SERVICE;
-import static android.os.UserHandle.USER_SYSTEM;
 import static com.dirtyunicorns.themes.Schedule.ScheduleFragment.PREF_THEME_SCHEDULE;
 import static com.dirtyunicorns.themes.Schedule.ScheduleFragment.PREF_THEME_SCHEDULED_END_THEME;
 import static com.dirtyunicorns.themes.Schedule.ScheduleFragment.PREF_THEME_SCHEDULED_END_THEME_VALUE;
@@ -29,10 +28,8 @@ import static com.dirtyunicorns.themes.Schedule.ScheduleFragment.PREF_THEME_SCHE
 import static com.dirtyunicorns.themes.Schedule.ScheduleFragment.PREF_ALARM_START_TIME;
 import static com.dirtyunicorns.themes.Schedule.ScheduleFragment.PREF_ALARM_END_TIME;
 
-import android.app.Activity;
 import android.app.AlarmManager;
 import android.app.PendingIntent;
-import android.app.UiModeManager;
 import android.app.WallpaperInfo;
 import android.app.WallpaperManager;
 import android.content.ComponentName;
@@ -41,10 +38,8 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.om.IOverlayManager;
 import android.content.pm.PackageManager;
-import android.os.RemoteException;
 import android.provider.Settings;
 import android.text.TextUtils;
-import android.widget.Button;
 
 import androidx.preference.PreferenceManager;
 
@@ -55,7 +50,6 @@ import com.dirtyunicorns.themes.receivers.ThemesEndReceiver;
 import com.dirtyunicorns.themes.receivers.ThemesStartReceiver;
 
 import java.util.Calendar;
-import java.util.Objects;
 
 public class Utils {
 
@@ -153,36 +147,27 @@ public class Utils {
         return scheduledEndThemeSummary;
     }
 
-    public static void handleOverlays(String packagename, Boolean state, IOverlayManager mOverlayManager) {
-        try {
-            mOverlayManager.setEnabled(packagename, state, USER_SYSTEM);
-        } catch (RemoteException e) {
-            e.printStackTrace();
+    public static String getThemeTypeName(Context context, String themeSwitch) {
+        switch (themeSwitch) {
+            case "2":
+                return context.getString(R.string.theme_type_google_dark);
+            case "3":
+                return context.getString(R.string.theme_type_pitch_black);
+            case "4":
+                return context.getString(R.string.theme_type_solarized_dark);
+            case "5":
+                return context.getString(R.string.theme_type_choco_x);
+            case "6":
+                return context.getString(R.string.theme_type_baked_green);
+            default:
+                return context.getString(R.string.theme_type_light);
         }
     }
 
-    public static void handleBackgrounds(Boolean state, Context context, int mode, String[] overlays, IOverlayManager mOverlayManager) {
-        if (context != null) {
-            Objects.requireNonNull(context.getSystemService(UiModeManager.class))
-                    .setNightMode(mode);
-        }
-        for (int i = 0; i < overlays.length; i++) {
-            String background = overlays[i];
-            try {
-                mOverlayManager.setEnabled(background, state, USER_SYSTEM);
-            } catch (RemoteException e) {
-                e.printStackTrace();
-            }
-        }
-    }
-
-    public static void setForegroundDrawable(String packagename, Button buttonAccent, Activity activity) {
-        if (com.android.internal.util.du.Utils.isThemeEnabled(packagename)) {
-            buttonAccent.setForeground(activity.getResources().getDrawable(
-                    R.drawable.accent_picker_checkmark, null));
-        } else {
-            buttonAccent.setForeground(null);
-        }
+    public static void handleBackgrounds(Context context, String themeSwitch, IOverlayManager mOverlayManager) {
+        new OverlayTransaction(context, mOverlayManager)
+                .setThemeSwitch(themeSwitch)
+                .commit();
     }
 
     public static void setEndAlarm(Context context) {
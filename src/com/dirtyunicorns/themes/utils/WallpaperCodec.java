@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2020 The Dirty Unicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dirtyunicorns.themes.utils;
+
+import android.graphics.Bitmap;
+import android.os.SystemProperties;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * How a backup wallpaper is written to disk. The id is saved with every
+ * theme, so ids must never change. Backups use {@link #getConfigured()},
+ * which is a raw copy of the wallpaper file unless overridden with
+ * {@code adb shell setprop debug.themes.wp_codec <id>}. Wallpapers without
+ * a file fall back to PNG.
+ */
+public class WallpaperCodec {
+
+    private static final String PROP_CODEC = "debug.themes.wp_codec";
+    private static final String WEBP_LOSSY_PREFIX = "webp-";
+
+    public static final WallpaperCodec PNG =
+            new WallpaperCodec("png", Bitmap.CompressFormat.PNG, 100);
+    // Since Q a WEBP quality of 100 selects lossless WebP
+    public static final WallpaperCodec WEBP_LOSSLESS =
+            new WallpaperCodec("webp-lossless", Bitmap.CompressFormat.WEBP, 100);
+    // The wallpaper service's own file, copied byte for byte
+    public static final WallpaperCodec RAW = new WallpaperCodec("raw", null, 0);
+
+    private final String mId;
+    private final Bitmap.CompressFormat mFormat;
+    private final int mQuality;
+
+    private WallpaperCodec(String id, Bitmap.CompressFormat format, int quality) {
+        mId = id;
+        mFormat = format;
+        mQuality = quality;
+    }
+
+    /**
+     * @param quality 0 to 99, 100 is {@link #WEBP_LOSSLESS}
+     */
+    public static WallpaperCodec webpLossy(int quality) {
+        return new WallpaperCodec(WEBP_LOSSY_PREFIX + quality,
+                Bitmap.CompressFormat.WEBP, quality);
+    }
+
+    /**
+     * @return the codec saved as id, PNG for backups older than codec ids
+     */
+    public static WallpaperCodec fromId(String id) {
+        if (id == null || PNG.mId.equals(id)) {
+            return PNG;
+        } else if (WEBP_LOSSLESS.mId.equals(id)) {
+            return WEBP_LOSSLESS;
+        } else if (RAW.mId.equals(id)) {
+            return RAW;
+        } else if (id.startsWith(WEBP_LOSSY_PREFIX)) {
+            try {
+                int quality = Integer.parseInt(id.substring(WEBP_LOSSY_PREFIX.length()));
+                if (quality >= 0 && quality < 100) {
+                    return webpLossy(quality);
+                }
+            } catch (NumberFormatException e) {
+                // Fall through to the default
+            }
+        }
+        return PNG;
+    }
+
+    public static WallpaperCodec getConfigured() {
+        return fromId(SystemProperties.get(PROP_CODEC, RAW.mId));
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    /**
+     * @return true if this codec copies the source file instead of
+     *         encoding a bitmap
+     */
+    public boolean isRaw() {
+        return mFormat == null;
+    }
+
+    public void encode(Bitmap bitmap, OutputStream out) throws IOException {
+        if (isRaw()) {
+            throw new UnsupportedOperationException("Raw copies have no encoder");
+        }
+        if (!bitmap.compress(mFormat, mQuality, out)) {
+            throw new IOException("Could not encode the wallpaper as " + mId);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2020 The Dirty Unicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dirtyunicorns.themes.utils;
+
+import android.app.WallpaperManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+
+import com.dirtyunicorns.themes.db.WallpaperStore;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Encode time, decode time and size on disk of every {@link WallpaperCodec}
+ * over the current wallpaper and one stored backup wallpaper. Full
+ * resolution encoding takes seconds, so it runs off the main thread and
+ * stops at a deadline, listing what it skipped: see
+ * {@link com.dirtyunicorns.themes.receivers.WallpaperCodecBenchmarkReceiver}.
+ */
+public class WallpaperCodecBenchmark {
+
+    // Backup wallpapers to include next to the current one
+    private static final int MAX_BACKUP_SAMPLES = 1;
+
+    private static final WallpaperCodec[] CODECS = {
+        WallpaperCodec.PNG,
+        WallpaperCodec.WEBP_LOSSLESS,
+        WallpaperCodec.webpLossy(90),
+        WallpaperCodec.webpLossy(75),
+    };
+
+    /**
+     * @param deadline {@link SystemClock#elapsedRealtime()} after which no
+     *                 further sample or codec is started
+     */
+    public static void run(Context context, long deadline, PrintWriter writer) {
+        File out = new File(context.getCacheDir(), "wallpaper-codec-benchmark");
+        try {
+            WallpaperManager wallpaperManager = WallpaperManager.getInstance(context);
+            ParcelFileDescriptor wallpaperFile =
+                    wallpaperManager.getWallpaperFile(WallpaperManager.FLAG_SYSTEM);
+            if (wallpaperFile != null) {
+                try {
+                    benchmarkRaw(wallpaperFile, out, writer);
+                } finally {
+                    wallpaperFile.close();
+                }
+            }
+            Bitmap current = wallpaperManager.getBitmap();
+            if (current != null) {
+                benchmark("current", current, deadline, out, writer);
+            }
+
+            List<File> blobs = WallpaperStore.getInstance(context).getBlobs();
+            for (int i = 0; i < blobs.size() && i < MAX_BACKUP_SAMPLES; i++) {
+                File blob = blobs.get(i);
+                if (SystemClock.elapsedRealtime() >= deadline) {
+                    writer.println(blob.getName() + ": skipped, out of time");
+                    continue;
+                }
+                Bitmap bitmap = BitmapFactory.decodeFile(blob.getPath());
+                if (bitmap != null) {
+                    benchmark(blob.getName(), bitmap, deadline, out, writer);
+                    bitmap.recycle();
+                }
+            }
+        } catch (IOException e) {
+            writer.println("Wallpaper codec benchmark failed: " + e);
+        } finally {
+            out.delete();
+        }
+    }
+
+    private static void benchmark(String sample, Bitmap bitmap, long deadline, File out,
+            PrintWriter writer) throws IOException {
+        writer.println(sample + " (" + bitmap.getWidth() + "x" + bitmap.getHeight() + "):");
+        for (WallpaperCodec codec : CODECS) {
+            if (SystemClock.elapsedRealtime() >= deadline) {
+                writer.println("  " + codec.getId() + ": skipped, out of time");
+                continue;
+            }
+            long start = SystemClock.elapsedRealtime();
+            OutputStream os = new BufferedOutputStream(new FileOutputStream(out));
+            try {
+                codec.encode(bitmap, os);
+            } finally {
+                os.close();
+            }
+            long encodeTime = SystemClock.elapsedRealtime() - start;
+            print(codec, encodeTime, out, writer);
+        }
+    }
+
+    private static void benchmarkRaw(ParcelFileDescriptor wallpaperFile, File out,
+            PrintWriter writer) throws IOException {
+        writer.println("current wallpaper file:");
+        long start = SystemClock.elapsedRealtime();
+        // Same copy as WallpaperStore.putFile(), without the hash
+        FileChannel in = new FileInputStream(wallpaperFile.getFileDescriptor()).getChannel();
+        FileOutputStream os = new FileOutputStream(out);
+        try {
+            FileChannel channel = os.getChannel();
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, channel);
+            }
+        } finally {
+            os.close();
+        }
+        long copyTime = SystemClock.elapsedRealtime() - start;
+        print(WallpaperCodec.RAW, copyTime, out, writer);
+    }
+
+    private static void print(WallpaperCodec codec, long encodeTime, File out,
+            PrintWriter writer) {
+        long start = SystemClock.elapsedRealtime();
+        Bitmap decoded = BitmapFactory.decodeFile(out.getPath());
+        long decodeTime = SystemClock.elapsedRealtime() - start;
+        if (decoded != null) {
+            decoded.recycle();
+        }
+        writer.println("  " + codec.getId() + ": encodeMs=" + encodeTime
+                + " decodeMs=" + decodeTime + " bytes=" + out.length());
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2020 The Dirty Unicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dirtyunicorns.themes.utils;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.dirtyunicorns.themes.R;
+import com.dirtyunicorns.themes.db.WallpaperStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Backup wallpapers scaled down to the restore carousel card, so the
+ * carousel never decodes a full resolution wallpaper. Thumbnails are
+ * written at backup time; backups made before that get theirs the first
+ * time the carousel shows them.
+ */
+public class WallpaperThumbnail {
+
+    private static final WallpaperCodec CODEC = WallpaperCodec.webpLossy(85);
+
+    public static int getWidth(Resources res) {
+        return res.getDisplayMetrics().widthPixels
+                - res.getDimensionPixelSize(R.dimen.restore_wallpaper_horizontal_inset);
+    }
+
+    public static int getHeight(Resources res) {
+        return res.getDimensionPixelSize(R.dimen.restore_wallpaper_height);
+    }
+
+    /**
+     * @return source scaled down just enough to cover width x height, as
+     *         the card's centerCrop shows it, or source if already smaller
+     */
+    public static Bitmap scale(Bitmap source, int width, int height) {
+        float scale = Math.max((float) width / source.getWidth(),
+                (float) height / source.getHeight());
+        if (scale >= 1f) {
+            return source;
+        }
+        return Bitmap.createScaledBitmap(source, Math.round(source.getWidth() * scale),
+                Math.round(source.getHeight() * scale), true);
+    }
+
+    public static void write(WallpaperStore store, String path, final Bitmap thumbnail)
+            throws IOException {
+        store.putThumbnail(path, new WallpaperStore.Encoder() {
+            @Override
+            public void encode(OutputStream out) throws IOException {
+                CODEC.encode(thumbnail, out);
+            }
+        });
+    }
+
+    /**
+     * Load the thumbnail of the wallpaper at path, creating it first if
+     * the backup predates thumbnails. Blocks, call it off the main thread.
+     *
+     * @return null if there is no readable wallpaper at path
+     */
+    public static Bitmap load(Context context, String path) {
+        WallpaperStore store = WallpaperStore.getInstance(context);
+        File thumbnail = store.getThumbnail(path);
+        Bitmap bitmap = BitmapFactory.decodeFile(thumbnail.getPath());
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        Resources res = context.getResources();
+        bitmap = decodeSampled(path, getWidth(res), getHeight(res));
+        if (bitmap != null) {
+            try {
+                write(store, path, bitmap);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return bitmap;
+    }
+
+    // Decode at the largest power of two subsampling that still covers
+    // width x height, then scale the rest of the way
+    private static Bitmap decodeSampled(String path, int width, int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= width
+                && options.outHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap sampled = BitmapFactory.decodeFile(path, options);
+        if (sampled == null) {
+            return null;
+        }
+        Bitmap scaled = scale(sampled, width, height);
+        if (scaled != sampled) {
+            sampled.recycle();
+        }
+        return scaled;
+    }
+}
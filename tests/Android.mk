@@ -0,0 +1,23 @@
+LOCAL_PATH:= $(call my-dir)
+include $(CLEAR_VARS)
+
+LOCAL_MODULE_TAGS := tests
+LOCAL_PACKAGE_NAME := DU-ThemesTests
+LOCAL_CERTIFICATE := platform
+LOCAL_PRIVATE_PLATFORM_APIS := true
+
+LOCAL_SRC_FILES := $(call all-java-files-under, src)
+LOCAL_ASSET_DIR := $(LOCAL_PATH)/assets
+
+LOCAL_JAVA_LIBRARIES := \
+    android.test.base \
+    android.test.runner
+
+LOCAL_STATIC_JAVA_LIBRARIES := \
+    androidx.test.ext.junit \
+    androidx.test.runner \
+    junit
+
+LOCAL_INSTRUMENTATION_FOR := DU-Themes
+
+include $(BUILD_PACKAGE)
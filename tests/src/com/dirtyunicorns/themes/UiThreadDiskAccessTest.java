@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2020 The Dirty Unicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dirtyunicorns.themes;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.Intent;
+import android.os.StrictMode;
+
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.dirtyunicorns.themes.db.ThemeDatabase;
+import com.dirtyunicorns.themes.db.ThemeRepository;
+import com.dirtyunicorns.themes.utils.ThemeDbUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives the theme library through the main and restore screens with a
+ * StrictMode policy that kills the process on any disk read or write of
+ * the main thread, so a library call that slips back onto the UI thread
+ * fails this test. The screens are launched before the policy is set:
+ * the framework itself reads shared preferences while creating them.
+ * Adds themes named TEST_PREFIX to the app's library and deletes them
+ * again when done.
+ */
+@RunWith(AndroidJUnit4.class)
+public class UiThreadDiskAccessTest {
+
+    private static final String TEST_PREFIX = "UiThreadDiskAccessTest ";
+    // More than two restore carousel pages
+    private static final int THEMES = 25;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private Instrumentation mInstrumentation;
+    private Context mContext;
+    private ThemeDatabase mThemeDatabase;
+    private ThemeRepository mThemeRepository;
+    private StrictMode.ThreadPolicy mOldPolicy;
+
+    @Before
+    public void setUp() {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        mContext = mInstrumentation.getTargetContext();
+        // Off the main thread, as the app does
+        mThemeDatabase = ThemeDatabase.getInstance(mContext);
+        mThemeRepository = ThemeRepository.getInstance(mContext);
+        for (int i = 0; i < THEMES; i++) {
+            mThemeDatabase.addThemeDbUtils(newTheme(TEST_PREFIX + i));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                if (mOldPolicy != null) {
+                    StrictMode.setThreadPolicy(mOldPolicy);
+                }
+            }
+        });
+        for (int i = 0; i <= THEMES; i++) {
+            deleteTheme(TEST_PREFIX + i);
+        }
+        deleteTheme(TEST_PREFIX + "renamed");
+    }
+
+    @Test
+    public void libraryNeverTouchesDiskOnMainThread() throws InterruptedException {
+        Activity main = startActivity(MainActivity.class);
+        final RestoreThemes restore = (RestoreThemes) startActivity(RestoreThemes.class);
+        final RecyclerView carousel =
+                (RecyclerView) restore.findViewById(R.id.themeRecyclerView);
+        waitForRepository();
+
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mOldPolicy = StrictMode.getThreadPolicy();
+                StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                        .detectDiskReads()
+                        .detectDiskWrites()
+                        .penaltyLog()
+                        .penaltyDeath()
+                        .build());
+            }
+        });
+
+        // Insert: both screens hear of it through their observers
+        mThemeDatabase.addThemeDbUtils(newTheme(TEST_PREFIX + THEMES));
+        waitForRepository();
+
+        // Page through the carousel
+        for (int page = 0; page * 10 <= THEMES; page++) {
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    carousel.scrollToPosition(carousel.getAdapter().getItemCount() - 1);
+                }
+            });
+            waitForRepository();
+        }
+        assertTrue(carousel.getAdapter().getItemCount() > THEMES);
+
+        // Rename and delete the way the restore screen does
+        final int renameId = mThemeDatabase.getThemeDbUtils(TEST_PREFIX + 0).getID();
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mThemeRepository.renameTheme(renameId, TEST_PREFIX + "renamed", null);
+                carousel.scrollToPosition(0);
+            }
+        });
+        waitForRepository();
+        // The carousel is newest first: this deletes the theme added above
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                restore.findViewById(R.id.deleteTheme).performClick();
+            }
+        });
+        waitForRepository();
+
+        assertFalse(main.isDestroyed());
+        assertFalse(restore.isFinishing());
+        restore.finish();
+        main.finish();
+    }
+
+    private Activity startActivity(Class<? extends Activity> activity) {
+        Intent intent = new Intent(mContext, activity);
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        Activity started = mInstrumentation.startActivitySync(intent);
+        mInstrumentation.waitForIdleSync();
+        return started;
+    }
+
+    // Wait for the repository thread, the results it posted and what the
+    // main thread does with them, including the requests those make
+    private void waitForRepository() throws InterruptedException {
+        for (int i = 0; i < 2; i++) {
+            final CountDownLatch done = new CountDownLatch(1);
+            mThemeRepository.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    return null;
+                }
+            }, new ThemeRepository.Callback<Void>() {
+                @Override
+                public void onResult(Void result) {
+                    done.countDown();
+                }
+            });
+            assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            mInstrumentation.waitForIdleSync();
+        }
+    }
+
+    private void deleteTheme(String name) {
+        ThemeDbUtils theme = mThemeDatabase.getThemeDbUtils(name);
+        if (theme != null) {
+            mThemeDatabase.deleteThemeDbUtils(theme.getID());
+        }
+    }
+
+    private static ThemeDbUtils newTheme(String name) {
+        return new ThemeDbUtils(name, false, 0xff4285f4, 0xff000000, "default", "1", "1",
+                1, "M50,0 L100,50 L50,100 L0,50 Z", 1, null, "default", null);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2020 The Dirty Unicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dirtyunicorns.themes.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.dirtyunicorns.themes.utils.ThemeDbUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Upgrades a database saved by every older schema version to the current
+ * one. The fixtures in assets/ hold the rows the backup code of their
+ * version wrote, including the odd ones: duplicate names, a duplicate
+ * whose numbered name is already taken, and colours with a low alpha.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ThemeDatabaseMigrationTest {
+
+    private static final String TEST_DATABASE = "themeDb-migration-test";
+    private static final int CURRENT_VERSION = 4;
+
+    private Context mContext;
+    private ThemeDatabase mThemeDatabase;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE);
+    }
+
+    @After
+    public void tearDown() {
+        if (mThemeDatabase != null) {
+            mThemeDatabase.close();
+        }
+        mContext.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void upgradeFromVersion1() throws IOException {
+        openFixture("themeDb-v1.db");
+
+        assertEquals(4, mThemeDatabase.getThemeDbUtilsCount());
+        assertEquals("Night", mThemeDatabase.getThemeDbUtils(1).getThemeName());
+        assertEquals("Night (2)", mThemeDatabase.getThemeDbUtils(3).getThemeName());
+        // "Night (2)" is taken by row 3, so the duplicate counts on
+        assertEquals("Night (2) (2)", mThemeDatabase.getThemeDbUtils(2).getThemeName());
+        assertEquals("Day", mThemeDatabase.getThemeDbUtils(4).getThemeName());
+
+        ThemeDbUtils night = mThemeDatabase.getThemeDbUtils(1);
+        assertTrue(night.isNightMode());
+        assertEquals(0xff4285f4, night.getThemeAccent());
+        assertEquals(0xff000000, night.getThemeNightColor());
+        assertEquals(1, night.getThemeFont());
+        assertEquals(1, night.getThemeSbIcons());
+        assertEquals("png", night.getThemeWpCodec());
+
+        // Written as "#5000000", Integer.toHexString() dropped the leading zero
+        ThemeDbUtils duplicate = mThemeDatabase.getThemeDbUtils(2);
+        assertFalse(duplicate.isNightMode());
+        assertEquals(0x05000000, duplicate.getThemeAccent());
+        assertEquals(3, duplicate.getThemeFont());
+        assertEquals(2, duplicate.getThemeSbIcons());
+        assertNull(duplicate.getThemeWp());
+        assertNull(duplicate.getThemeWpCodec());
+
+        assertUniqueNames();
+    }
+
+    @Test
+    public void upgradeFromVersion2() throws IOException {
+        openFixture("themeDb-v2.db");
+
+        assertEquals(2, mThemeDatabase.getThemeDbUtilsCount());
+        ThemeDbUtils pixel = mThemeDatabase.getThemeDbUtils("Pixel");
+        assertNotNull(pixel);
+        assertEquals(1, pixel.getID());
+        assertFalse(pixel.isNightMode());
+        assertEquals(0xff1a73e8, pixel.getThemeAccent());
+        assertEquals(0xff202124, pixel.getThemeNightColor());
+        assertEquals(3, pixel.getThemeFont());
+        assertEquals(2, pixel.getThemeSbIcons());
+        assertEquals("png", pixel.getThemeWpCodec());
+
+        ThemeDbUtils dark = mThemeDatabase.getThemeDbUtils(5);
+        assertEquals("Dark", dark.getThemeName());
+        assertTrue(dark.isNightMode());
+        assertEquals(0x03000000, dark.getThemeNightColor());
+        assertEquals("accent_green", dark.getAccentPicker());
+        assertEquals("3", dark.getAdaptiveIconShape());
+        assertNull(dark.getThemeWpCodec());
+
+        assertUniqueNames();
+    }
+
+    @Test
+    public void upgradeFromVersion3() throws IOException {
+        openFixture("themeDb-v3.db");
+
+        assertEquals(2, mThemeDatabase.getThemeDbUtilsCount());
+        ThemeDbUtils typed = mThemeDatabase.getThemeDbUtils(1);
+        assertEquals("Typed", typed.getThemeName());
+        assertTrue(typed.isNightMode());
+        assertEquals(-12417548, typed.getThemeAccent());
+        assertNotNull(typed.getThemeWp());
+        assertEquals("png", typed.getThemeWpCodec());
+
+        ThemeDbUtils noWallpaper = mThemeDatabase.getThemeDbUtils(2);
+        assertEquals(4, noWallpaper.getThemeFont());
+        assertNull(noWallpaper.getThemeWp());
+        assertNull(noWallpaper.getThemeWpCodec());
+
+        assertUniqueNames();
+    }
+
+    // Copies the fixture in as TEST_DATABASE and opens it, which upgrades it
+    private void openFixture(String asset) throws IOException {
+        Context testContext = InstrumentationRegistry.getInstrumentation().getContext();
+        File file = mContext.getDatabasePath(TEST_DATABASE);
+        file.getParentFile().mkdirs();
+        InputStream in = testContext.getAssets().open(asset);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+
+        mThemeDatabase = new ThemeDatabase(mContext, TEST_DATABASE);
+        SQLiteDatabase db = mThemeDatabase.getWritableDatabase();
+        assertEquals(CURRENT_VERSION, db.getVersion());
+    }
+
+    private void assertUniqueNames() {
+        ThemeDbUtils theme = mThemeDatabase.getThemeDbUtils(1);
+        assertFalse(mThemeDatabase.addThemeDbUtils(new ThemeDbUtils(theme.getThemeName(),
+                false, 0, 0, null, null, null, 1, null, 1, null, null, null)));
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2020 The Dirty Unicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dirtyunicorns.themes.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.dirtyunicorns.themes.utils.ThemeDbUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Cost of one theme lookup on the shared, write-ahead logged connection
+ * against the open, query, close cycle every ThemeDatabase call used to
+ * pay. Results go to the instrumentation status and the log as ns/query:
+ * {@code adb shell am instrument -w -e class
+ * com.dirtyunicorns.themes.db.ThemeDatabaseQueryBenchmark
+ * com.dirtyunicorns.themes.tests/androidx.test.runner.AndroidJUnitRunner}
+ */
+@RunWith(AndroidJUnit4.class)
+public class ThemeDatabaseQueryBenchmark {
+
+    private static final String TAG = "ThemeDatabaseQueryBenchmark";
+    private static final String TEST_DATABASE = "themeDb-query-benchmark";
+    private static final int THEMES = 100;
+    private static final int WARMUP = 50;
+    private static final int ITERATIONS = 1000;
+
+    private Context mContext;
+    private ThemeDatabase mThemeDatabase;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE);
+        mThemeDatabase = new ThemeDatabase(mContext, TEST_DATABASE);
+        for (int i = 0; i < THEMES; i++) {
+            assertTrue(mThemeDatabase.addThemeDbUtils(new ThemeDbUtils("Theme " + i,
+                    i % 2 == 0, 0xff4285f4, 0xff000000, "default", "1", "1", 1,
+                    "M50,0 L100,50 L50,100 L0,50 Z", 1, null, "default", null)));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mThemeDatabase.close();
+        mContext.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void lookupById() {
+        for (int i = 0; i < WARMUP; i++) {
+            assertNotNull(mThemeDatabase.getThemeDbUtils(i % THEMES + 1));
+        }
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            mThemeDatabase.getThemeDbUtils(i % THEMES + 1);
+        }
+        long shared = (SystemClock.elapsedRealtimeNanos() - start) / ITERATIONS;
+
+        String path = mContext.getDatabasePath(TEST_DATABASE).getPath();
+        for (int i = 0; i < WARMUP; i++) {
+            assertEquals(1, lookupReopened(path, i % THEMES + 1));
+        }
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            lookupReopened(path, i % THEMES + 1);
+        }
+        long reopened = (SystemClock.elapsedRealtimeNanos() - start) / ITERATIONS;
+
+        report("lookup_by_id_shared_ns", shared);
+        report("lookup_by_id_reopened_ns", reopened);
+    }
+
+    @Test
+    public void nameCheck() {
+        for (int i = 0; i < WARMUP; i++) {
+            assertTrue(mThemeDatabase.hasThemeDbUtils("Theme " + (i % THEMES)));
+        }
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            mThemeDatabase.hasThemeDbUtils("Theme " + (i % THEMES));
+        }
+        report("name_check_compiled_ns", (SystemClock.elapsedRealtimeNanos() - start)
+                / ITERATIONS);
+    }
+
+    // What a lookup cost when every call opened the database and closed it
+    private static int lookupReopened(String path, int id) {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(path, null,
+                SQLiteDatabase.OPEN_READONLY);
+        try {
+            Cursor cursor = db.rawQuery("SELECT * FROM themeTableDb WHERE id = ?",
+                    new String[] {String.valueOf(id)});
+            try {
+                return cursor.moveToFirst() ? 1 : 0;
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    private static void report(String name, long value) {
+        Log.i(TAG, name + "=" + value);
+        Bundle status = new Bundle();
+        status.putLong(name, value);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, status);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2020 The Dirty Unicorns Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dirtyunicorns.themes.db;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.dirtyunicorns.themes.utils.ThemeDbUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Imports a library of 10k themes, exports it again and pages through it
+ * the way the restore carousel does. Results go to the instrumentation
+ * status and the log, import and export as rows/s, pages as ns/page:
+ * {@code adb shell am instrument -w -e class
+ * com.dirtyunicorns.themes.db.ThemeLibraryBenchmark
+ * com.dirtyunicorns.themes.tests/androidx.test.runner.AndroidJUnitRunner}
+ */
+@RunWith(AndroidJUnit4.class)
+public class ThemeLibraryBenchmark {
+
+    private static final String TAG = "ThemeLibraryBenchmark";
+    private static final String TEST_DATABASE = "themeDb-library-benchmark";
+    private static final int THEMES = 10000;
+    // RestoreThemes.PAGE_SIZE
+    private static final int PAGE_SIZE = 10;
+
+    private Context mContext;
+    private ThemeDatabase mThemeDatabase;
+    private byte[] mLibrary;
+
+    @Before
+    public void setUp() throws IOException {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE);
+        mThemeDatabase = new ThemeDatabase(mContext, TEST_DATABASE);
+        mLibrary = writeLibrary(THEMES);
+    }
+
+    @After
+    public void tearDown() {
+        mThemeDatabase.close();
+        mContext.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void importExportAndPage() throws IOException {
+        long start = SystemClock.elapsedRealtimeNanos();
+        assertEquals(THEMES, mThemeDatabase.importThemes(
+                new ByteArrayInputStream(mLibrary), null));
+        long imported = SystemClock.elapsedRealtimeNanos() - start;
+        assertEquals(THEMES, mThemeDatabase.getThemeDbUtilsCount());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(mLibrary.length);
+        start = SystemClock.elapsedRealtimeNanos();
+        assertEquals(THEMES, mThemeDatabase.exportThemes(out, null));
+        long exported = SystemClock.elapsedRealtimeNanos() - start;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        List<ThemeDbUtils> page = mThemeDatabase.getThemeDbUtilsPage(Integer.MAX_VALUE,
+                PAGE_SIZE);
+        long firstPage = SystemClock.elapsedRealtimeNanos() - start;
+        assertEquals(PAGE_SIZE, page.size());
+
+        int rows = 0;
+        int pages = 0;
+        int beforeId = Integer.MAX_VALUE;
+        start = SystemClock.elapsedRealtimeNanos();
+        while (!(page = mThemeDatabase.getThemeDbUtilsPage(beforeId, PAGE_SIZE)).isEmpty()) {
+            beforeId = page.get(page.size() - 1).getID();
+            rows += page.size();
+            pages++;
+        }
+        long allPages = SystemClock.elapsedRealtimeNanos() - start;
+        assertEquals(THEMES, rows);
+
+        report("import_rows_per_s", THEMES * 1000000000L / imported);
+        report("export_rows_per_s", THEMES * 1000000000L / exported);
+        report("first_page_ns", firstPage);
+        report("page_ns", allPages / pages);
+    }
+
+    @Test
+    public void reimportSkipsSavedThemes() throws IOException {
+        assertEquals(THEMES, mThemeDatabase.importThemes(
+                new ByteArrayInputStream(mLibrary), null));
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        assertEquals(0, mThemeDatabase.importThemes(new ByteArrayInputStream(mLibrary), null));
+        long reimported = SystemClock.elapsedRealtimeNanos() - start;
+
+        report("reimport_rows_per_s", THEMES * 1000000000L / reimported);
+    }
+
+    // A library as exportThemes() writes it, every theme a valid one
+    private static byte[] writeLibrary(int themes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.beginArray();
+        for (int i = 0; i < themes; i++) {
+            writer.beginObject();
+            writer.name("themeName").value("Theme " + i);
+            writer.name("themeDayNight").value(i % 2 == 0);
+            writer.name("themeAccent").value(0xff4285f4);
+            writer.name("themeNightColor").value(0xff000000);
+            writer.name("accentPicker").value("default");
+            writer.name("themeSwitch").value(String.valueOf(i % 6 + 1));
+            writer.name("adaptativeIconShape").value("1");
+            writer.name("themeFont").value(1);
+            writer.name("themeIconShape").value("M50,0 L100,50 L50,100 L0,50 Z");
+            writer.name("themeSbIcons").value(i % 4 + 1);
+            writer.name("themeNavbarStyle").value("default");
+            writer.endObject();
+        }
+        writer.endArray();
+        writer.close();
+        return out.toByteArray();
+    }
+
+    private static void report(String name, long value) {
+        Log.i(TAG, name + "=" + value);
+        Bundle status = new Bundle();
+        status.putLong(name, value);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, status);
+    }
+}